@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * A small stand-in for JMH, which is not available to this tree: each
+ * benchmark is run for a number of warmup iterations and then measured
+ * iterations, and the time and bytes allocated per operation are printed.
+ * Results that could be optimized away go through {@link #consume}.
+ */
+public abstract class Benchmark {
+	
+	private static volatile long sSink;
+	
+	private final String mName;
+	
+	protected Benchmark(String name) {
+		mName = name;
+	}
+	
+	public String getName() {
+		return mName;
+	}
+	
+	/**
+	 * Runs one iteration and returns the number of operations it did.
+	 */
+	protected abstract long run() throws Exception;
+	
+	protected static void consume(long value) {
+		sSink += value;
+	}
+	
+	protected static void consume(Object value) {
+		sSink += (value != null) ? value.hashCode() : 0;
+	}
+	
+	/**
+	 * Returns how many bytes the current thread has allocated so far, or
+	 * -1 if the JVM does not count them.
+	 */
+	public static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	/**
+	 * Measures each benchmark in turn, printing one row per benchmark.
+	 */
+	public static void measure(int warmup, int iterations, Benchmark... benchmarks) throws Exception {
+		System.out.println(String.format("%-40s %12s %12s %14s %10s", "benchmark", "ns/op", "+/-", "ops/s", "B/op"));
+		
+		for (Benchmark benchmark : benchmarks) {
+			for (int i = 0; i < warmup; i++) {
+				benchmark.run();
+			}
+			
+			double[] nanos = new double[iterations];
+			long ops = 0;
+			long bytes = 0;
+			
+			for (int i = 0; i < iterations; i++) {
+				long allocated = allocatedBytes();
+				long start = System.nanoTime();
+				long n = benchmark.run();
+				long elapsed = System.nanoTime() - start;
+				
+				bytes += allocatedBytes() - allocated;
+				nanos[i] = (double) elapsed / Math.max(1, n);
+				ops += n;
+			}
+			
+			Arrays.sort(nanos);
+			double mean = 0;
+			
+			for (double v : nanos) {
+				mean += v / iterations;
+			}
+			
+			double error = (nanos[iterations - 1] - nanos[0]) / 2;
+			System.out.println(String.format("%-40s %12.1f %12.1f %14.0f %10s", benchmark.getName(), mean, error,
+					1e9 / mean, (allocatedBytes() >= 0) ? String.format("%.1f", (double) bytes / Math.max(1, ops)) : "n/a"));
+		}
+	}
+}
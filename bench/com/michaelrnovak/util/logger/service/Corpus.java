@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a benchmark corpus by repeating the recorded logs under the
+ * fixture directory (the "fixtures" system property) up to a given size.
+ */
+public class Corpus {
+	
+	public static final String[] LOGCAT = {"brief.log", "time.log", "threadtime.log"};
+	public static final String[] ALL = {"brief.log", "time.log", "threadtime.log", "long.log", "kernel.log"};
+	
+	public static byte[] build(String[] fixtures, int size) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size + 64 * 1024);
+		byte[][] logs = new byte[fixtures.length][];
+		
+		for (int i = 0; i < fixtures.length; i++) {
+			logs[i] = read(new File(System.getProperty("fixtures", "test/fixtures"), fixtures[i]));
+		}
+		
+		while (out.size() < size) {
+			for (byte[] log : logs) {
+				out.write(log, 0, log.length);
+			}
+		}
+		
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Splits a corpus into records the way the service stores them.
+	 */
+	public static List<String> records(byte[] corpus) throws IOException {
+		LogcatParser parser = new LogcatParser(new ByteArrayInputStream(corpus));
+		LogEntry entry = new LogEntry();
+		ArrayList<String> records = new ArrayList<String>();
+		
+		while (parser.next(entry)) {
+			records.add(entry.getLine());
+		}
+		
+		return records;
+	}
+	
+	/**
+	 * Parses an "8m" or "512k" style size argument.
+	 */
+	public static int size(String[] args, int index, int fallback) {
+		if (args.length <= index) {
+			return fallback;
+		}
+		
+		String arg = args[index].toLowerCase();
+		int scale = arg.endsWith("m") ? 1024 * 1024 : arg.endsWith("k") ? 1024 : 1;
+		
+		if (scale != 1) {
+			arg = arg.substring(0, arg.length() - 1);
+		}
+		
+		return Integer.parseInt(arg) * scale;
+	}
+	
+	private static byte[] read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+			byte[] buf = new byte[8192];
+			int n;
+			
+			while ((n = in.read(buf)) >= 0) {
+				out.write(buf, 0, n);
+			}
+			
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
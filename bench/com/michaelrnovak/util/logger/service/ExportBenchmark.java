@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Exporting a scrollback in each file format, unfiltered and
+ * through a tag filter. Files go to the temp directory.
+ * 
+ *   bench/run.sh ExportBenchmark [corpus size, default 8m]
+ */
+public class ExportBenchmark {
+	
+	public static void main(String[] args) throws Exception {
+		List<String> records = Corpus.records(Corpus.build(Corpus.ALL, Corpus.size(args, 0, 8 * 1024 * 1024)));
+		PackedScrollback scrollback = new PackedScrollback(records.size(), 32 * 1024 * 1024, new TagDictionary());
+		
+		for (int i = 0; i < records.size(); i++) {
+			scrollback.add(records.get(i));
+		}
+		
+		Benchmark.measure(3, 5,
+				new Export("export/text", scrollback, LogFilter.ALL, ".log"),
+				new Export("export/text, tag filter", scrollback, new LogFilter((char) 0, "ActivityManager"), ".log"),
+				new Export("export/gzip", scrollback, LogFilter.ALL, ".log.gz"),
+				new Export("export/indexed", scrollback, LogFilter.ALL, IndexedLogSource.SUFFIX));
+	}
+	
+	private static class Export extends Benchmark {
+		private final PackedScrollback mLines;
+		private final LogFilter mFilter;
+		private final File mFile;
+		
+		Export(String name, PackedScrollback lines, LogFilter filter, String suffix) throws Exception {
+			super(name);
+			mLines = lines;
+			mFilter = filter;
+			mFile = File.createTempFile("export", suffix);
+			mFile.deleteOnExit();
+		}
+		
+		protected long run() throws Exception {
+			consume(new LogExporter().export(mLines.cursor(), mFilter, mFile, null));
+			return mLines.size();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Cost of the display filter and search on top of parsing, per line:
+ * parsing alone, a level filter, a tag filter comparing bytes, the same
+ * tag filter comparing dictionary ids, and a highlighting search.
+ * 
+ *   bench/run.sh FilterBenchmark [corpus size, default 8m]
+ */
+public class FilterBenchmark {
+	
+	public static void main(String[] args) throws Exception {
+		final byte[] corpus = Corpus.build(Corpus.ALL, Corpus.size(args, 0, 8 * 1024 * 1024));
+		TagDictionary tags = new TagDictionary();
+		
+		Benchmark.measure(5, 10,
+				new Filtered("filter/parse only", corpus, null, null),
+				new Filtered("filter/level", corpus, null, new LineSelector(new LogFilter('W', null), null)),
+				new Filtered("filter/tags", corpus, null,
+						new LineSelector(new LogFilter((char) 0, "ActivityManager,dalvikvm"), null)),
+				new Filtered("filter/tags by id", corpus, tags,
+						new LineSelector(new LogFilter((char) 0, "ActivityManager,dalvikvm", -1, tags), null)),
+				new Filtered("filter/search", corpus, null,
+						new LineSelector(LogFilter.ALL, new SearchMatcher("fatal /pid=\\d+/", false))));
+	}
+	
+	private static class Filtered extends Benchmark {
+		private final byte[] mCorpus;
+		private final TagDictionary mTags;
+		private final LineSelector mSelector;
+		private final LogEntry mEntry = new LogEntry();
+		
+		Filtered(String name, byte[] corpus, TagDictionary tags, LineSelector selector) {
+			super(name);
+			mCorpus = corpus;
+			mTags = tags;
+			mSelector = selector;
+		}
+		
+		protected long run() throws Exception {
+			LogcatParser parser = new LogcatParser(new ByteArrayInputStream(mCorpus));
+			long lines = 0;
+			long shown = 0;
+			
+			parser.setTagDictionary(mTags);
+			
+			while (parser.next(mEntry)) {
+				lines++;
+				
+				if (mSelector == null) {
+					shown += mEntry.level;
+				} else if (mSelector.getSearch() == null) {
+					shown += mSelector.getFilter().accept(mEntry) ? 1 : 0;
+				} else {
+					// the search needs the line as the display will get it
+					String line = mEntry.getLine();
+					shown += (mSelector.select(mEntry, line, LineSelector.searchStart(mEntry)) != LineSelector.REJECTED) ? 1 : 0;
+				}
+			}
+			
+			consume(shown);
+			return lines;
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Query latency of an indexed capture against a linear parse-and-filter
+ * scan of the same capture as text. Both files are generated under the
+ * temp directory: -v time lines a millisecond or two apart, with a query
+ * for one tag at or above W over a tenth of the time span.
+ * 
+ *   bench/run.sh IndexQueryBenchmark [capture size, default 256m]
+ */
+public class IndexQueryBenchmark {
+	
+	private static final String[] TAGS = {
+		"ActivityManager", "dalvikvm", "WindowManager", "PackageManager", "InputDispatcher",
+		"ConnectivityService", "AudioFlinger", "GC", "chromium", "SurfaceFlinger", "wpa_supplicant", "vold"
+	};
+	private static final String LEVELS = "VVDDDDDIIIIIIWWE";
+	private static final String TAG = "AudioFlinger";
+	private static final char MIN_LEVEL = 'W';
+	
+	private static long sFirst;
+	private static long sLast;
+	
+	public static void main(String[] args) throws Exception {
+		int size = Corpus.size(args, 0, 256 * 1024 * 1024);
+		final File text = File.createTempFile("capture", ".log");
+		final File indexed = File.createTempFile("capture", IndexedLogSource.SUFFIX);
+		text.deleteOnExit();
+		indexed.deleteOnExit();
+		
+		long lines = generate(text, indexed, size);
+		final long from = sFirst + (sLast - sFirst) * 9 / 20;
+		final long to = from + (sLast - sFirst) / 10;
+		System.out.println(lines + " lines, " + (text.length() >> 20) + " MB text, "
+				+ (indexed.length() >> 20) + " MB indexed");
+		
+		long scanned = scan(text, from, to);
+		long queried = query(indexed, from, to);
+		System.out.println(scanned + " matches by scan, " + queried + " by index");
+		
+		if (scanned != queried) {
+			throw new AssertionError("the index disagrees with the scan");
+		}
+		
+		Benchmark scan = new Benchmark("query/linear scan") {
+			protected long run() throws Exception {
+				consume(scan(text, from, to));
+				return 1;
+			}
+		};
+		
+		Benchmark index = new Benchmark("query/index") {
+			protected long run() throws Exception {
+				consume(query(indexed, from, to));
+				return 1;
+			}
+		};
+		
+		Benchmark.measure(2, 5, scan, index);
+	}
+	
+	private static long scan(File text, long from, long to) throws IOException {
+		InputStream in = new FileInputStream(text);
+		LogcatParser parser = new LogcatParser(in, 64 * 1024);
+		LogEntry entry = new LogEntry();
+		int min = IndexedLogWriter.levelIndex(MIN_LEVEL);
+		long found = 0;
+		
+		try {
+			while (parser.next(entry)) {
+				if (entry.timestamp >= from && entry.timestamp <= to && entry.level != 0
+						&& IndexedLogWriter.levelIndex(entry.level) >= min && entry.tagEquals(TAG)) {
+					found++;
+				}
+			}
+		} finally {
+			in.close();
+		}
+		
+		return found;
+	}
+	
+	private static long query(File indexed, long from, long to) throws IOException {
+		IndexedLogReader reader = new IndexedLogReader(indexed);
+		
+		try {
+			return reader.query(TAG, MIN_LEVEL, from, to, new IndexedLogReader.Callback() {
+				public boolean onRecord(long timestamp, char level, String tag, String line) {
+					return true;
+				}
+			});
+		} finally {
+			reader.close();
+		}
+	}
+	
+	// writes the same lines as text and as an indexed file, returning how many
+	private static long generate(File text, File indexed, int size) throws IOException {
+		Random random = new Random(42);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(text), 64 * 1024);
+		FileOutputStream index = new FileOutputStream(indexed);
+		IndexedLogWriter writer = new IndexedLogWriter(index.getChannel());
+		LogEntry entry = new LogEntry();
+		StringBuilder line = new StringBuilder(160);
+		long time = 3L * 24 * 3600 * 1000;
+		long written = 0;
+		long lines = 0;
+		
+		sFirst = time;
+		
+		try {
+			while (written < size) {
+				time += random.nextInt(3);
+				line.setLength(0);
+				appendTime(line, time);
+				line.append(' ').append(LEVELS.charAt(random.nextInt(LEVELS.length()))).append('/');
+				line.append(TAGS[random.nextInt(TAGS.length)]).append("( ").append(100 + random.nextInt(900)).append("): ");
+				
+				for (int i = 4 + random.nextInt(12); i > 0; i--) {
+					line.append(Long.toHexString(random.nextLong()), 0, 1 + random.nextInt(8)).append(' ');
+				}
+				
+				byte[] b = IndexedLogWriter.utf8(line.toString());
+				out.write(b);
+				out.write('\n');
+				
+				LogcatParser.parse(b, 0, b.length, entry);
+				writer.append(entry);
+				written += b.length + 1;
+				lines++;
+			}
+			
+			writer.finish();
+		} finally {
+			out.close();
+			index.close();
+		}
+		
+		sLast = time;
+		return lines;
+	}
+	
+	// MM-DD HH:MM:SS.mmm for a time since the start of the year, January only
+	private static void appendTime(StringBuilder b, long time) {
+		pad(b, 1, 2).append('-');
+		pad(b, (int) (time / 86400000) + 1, 2).append(' ');
+		pad(b, (int) (time / 3600000 % 24), 2).append(':');
+		pad(b, (int) (time / 60000 % 60), 2).append(':');
+		pad(b, (int) (time / 1000 % 60), 2).append('.');
+		pad(b, (int) (time % 1000), 3);
+	}
+	
+	private static StringBuilder pad(StringBuilder b, int value, int width) {
+		String s = String.valueOf(value);
+		
+		for (int i = s.length(); i < width; i++) {
+			b.append('0');
+		}
+		
+		return b.append(s);
+	}
+}
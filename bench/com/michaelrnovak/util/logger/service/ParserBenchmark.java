@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Compares {@link LogcatParser} against the way Logger and LogProcessor used
+ * to read logcat: BufferedReader.readLine() and then charAt, substring and
+ * toLowerCase().trim() on every line to check the level and tag.
+ * 
+ *   bench/run.sh ParserBenchmark [corpus size, default 8m]
+ */
+public class ParserBenchmark {
+	
+	private static final String TAG = "ActivityManager";
+	
+	public static void main(String[] args) throws Exception {
+		final byte[] corpus = Corpus.build(Corpus.LOGCAT, Corpus.size(args, 0, 8 * 1024 * 1024));
+		
+		Benchmark substring = new Benchmark("parse/substring") {
+			protected long run() throws Exception {
+				BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(corpus), "UTF-8"), 8192);
+				String line;
+				long lines = 0;
+				long matched = 0;
+				
+				while ((line = in.readLine()) != null) {
+					lines++;
+					
+					// the old code threw on lines without a '(' ; guarded here
+					if (line.length() > 2 && line.charAt(0) != 'V' && line.indexOf('(') > 2) {
+						String tag = line.substring(2, line.indexOf("("));
+						
+						if (TAG.toLowerCase().equals(tag.toLowerCase().trim())) {
+							matched++;
+						}
+					}
+				}
+				
+				consume(matched);
+				return lines;
+			}
+		};
+		
+		Benchmark streaming = new Benchmark("parse/streaming") {
+			private final LogEntry mEntry = new LogEntry();
+			
+			protected long run() throws Exception {
+				LogcatParser parser = new LogcatParser(new ByteArrayInputStream(corpus));
+				long lines = 0;
+				long matched = 0;
+				
+				while (parser.next(mEntry)) {
+					lines++;
+					
+					if (mEntry.level != 'V' && mEntry.hasTag() && mEntry.tagEquals(TAG)) {
+						matched++;
+					}
+				}
+				
+				consume(matched);
+				return lines;
+			}
+		};
+		
+		Benchmark dictionary = new Benchmark("parse/streaming+intern") {
+			private final LogEntry mEntry = new LogEntry();
+			private final TagDictionary mTags = new TagDictionary();
+			
+			protected long run() throws Exception {
+				LogcatParser parser = new LogcatParser(new ByteArrayInputStream(corpus));
+				int tagId = mTags.intern(TAG);
+				long lines = 0;
+				long matched = 0;
+				
+				parser.setTagDictionary(mTags);
+				
+				while (parser.next(mEntry)) {
+					lines++;
+					
+					if (mEntry.level != 'V' && mEntry.tagId == tagId) {
+						matched++;
+					}
+				}
+				
+				consume(matched);
+				return lines;
+			}
+		};
+		
+		Benchmark.measure(5, 10, substring, streaming, dictionary);
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+
+/**
+ * Replays a recorded corpus through {@link ReplayLogSource} at controlled
+ * rates and runs each line through the reader's path: parse with tag ids,
+ * trigger rules, packed scrollback and the display filter. Reports the rate the pipeline kept up with and
+ * the bytes allocated per line, replay included; a row falls short of its
+ * offered rate once the pipeline, not the replay, is the limit.
+ * 
+ *   bench/run.sh ReplayBenchmark [seconds per rate, default 3]
+ */
+public class ReplayBenchmark {
+	
+	private static final float[] SPEED_UPS = {1000, 10000, 100000, 0};
+	
+	public static void main(String[] args) throws Exception {
+		long duration = ((args.length > 0) ? Integer.parseInt(args[0]) : 3) * 1000L;
+		File capture = File.createTempFile("replay", ".log");
+		capture.deleteOnExit();
+		
+		FileOutputStream out = new FileOutputStream(capture);
+		
+		try {
+			out.write(Corpus.build(new String[] {"threadtime.log"}, 1024 * 1024));
+		} finally {
+			out.close();
+		}
+		
+		System.out.println(String.format("%-24s %14s %14s %10s", "replay", "lines", "lines/s", "B/line"));
+		
+		for (int i = 0; i < SPEED_UPS.length; i++) {
+			replay(capture, SPEED_UPS[i], 0, duration);
+		}
+		
+		replay(capture, 10000, 2000, duration);
+	}
+	
+	private static void replay(File capture, float speedUp, int burst, long duration) throws Exception {
+		ReplayLogSource source = new ReplayLogSource(capture, speedUp, true);
+		TagDictionary tags = new TagDictionary();
+		TriggerRules triggers = new TriggerRules(TriggerRules.DEFAULTS, tags);
+		PackedScrollback scrollback = new PackedScrollback(16 * 1024, 2 * 1024 * 1024, tags);
+		LogFilter filter = new LogFilter('W', null, -1, tags);
+		LogEntry entry = new LogEntry();
+		
+		if (burst > 0) {
+			source.setBurst(1000, burst);
+		}
+		
+		InputStream in = source.open();
+		LogcatParser parser = new LogcatParser(in);
+		parser.setTagDictionary(tags);
+		
+		long allocated = Benchmark.allocatedBytes();
+		long start = System.nanoTime();
+		long end = start + duration * 1000000;
+		long lines = 0;
+		long shown = 0;
+		
+		while (System.nanoTime() < end && parser.next(entry)) {
+			lines++;
+			
+			if (triggers.match(entry) != null) {
+				shown++;
+			}
+			
+			scrollback.add(entry);
+			
+			// as the reader does, only lines the filter lets through are decoded
+			if (filter.accept(entry)) {
+				shown += entry.getLine().length();
+			}
+		}
+		
+		long elapsed = System.nanoTime() - start;
+		long bytes = Benchmark.allocatedBytes() - allocated;
+		source.close();
+		Benchmark.consume(shown);
+		
+		String name = ((speedUp > 0) ? (int) speedUp + "x" : "unpaced") + ((burst > 0) ? " + bursts" : "");
+		System.out.println(String.format("%-24s %14d %14.0f %10s", name, lines, lines * 1e9 / elapsed,
+				(allocated >= 0) ? String.format("%.1f", (double) bytes / Math.max(1, lines)) : "n/a"));
+	}
+}
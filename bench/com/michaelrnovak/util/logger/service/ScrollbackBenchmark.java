@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+/**
+ * Appending to a full scrollback, so every add also evicts, and taking a
+ * snapshot of it: the ring of Strings against the packed byte arena.
+ * 
+ *   bench/run.sh ScrollbackBenchmark [corpus size, default 8m]
+ */
+public class ScrollbackBenchmark {
+	
+	private static final int CAPACITY = 16 * 1024;
+	private static final int ARENA = 2 * 1024 * 1024;
+	
+	public static void main(String[] args) throws Exception {
+		final byte[] corpus = Corpus.build(Corpus.ALL, Corpus.size(args, 0, 8 * 1024 * 1024));
+		final List<String> records = Corpus.records(corpus);
+		final RingScrollback<String> ring = new RingScrollback<String>(CAPACITY);
+		final TagDictionary tags = new TagDictionary();
+		final PackedScrollback packed = new PackedScrollback(CAPACITY, ARENA, tags);
+		
+		Benchmark ringAppend = new Benchmark("scrollback/ring append") {
+			protected long run() {
+				// the reader decodes every line for the ring
+				for (int i = 0; i < records.size(); i++) {
+					ring.add(records.get(i));
+				}
+				
+				return records.size();
+			}
+		};
+		
+		Benchmark packedAppend = new Benchmark("scrollback/packed append") {
+			private final LogEntry mEntry = new LogEntry();
+			
+			protected long run() throws Exception {
+				LogcatParser parser = new LogcatParser(new ByteArrayInputStream(corpus));
+				long lines = 0;
+				
+				parser.setTagDictionary(tags);
+				
+				while (parser.next(mEntry)) {
+					packed.add(mEntry);
+					lines++;
+				}
+				
+				return lines;
+			}
+		};
+		
+		Benchmark packedAppendString = new Benchmark("scrollback/packed append String") {
+			protected long run() {
+				for (int i = 0; i < records.size(); i++) {
+					packed.add(records.get(i));
+				}
+				
+				return records.size();
+			}
+		};
+		
+		Benchmark ringSnapshot = new Benchmark("scrollback/ring snapshot") {
+			protected long run() {
+				List<String> lines = ring.snapshot();
+				consume(lines.size());
+				return lines.size();
+			}
+		};
+		
+		Benchmark packedSnapshot = new Benchmark("scrollback/packed snapshot") {
+			protected long run() {
+				List<String> lines = packed.snapshot();
+				consume(lines.size());
+				return lines.size();
+			}
+		};
+		
+		Benchmark.measure(5, 10, ringAppend, packedAppend, packedAppendString, ringSnapshot, packedSnapshot);
+	}
+}
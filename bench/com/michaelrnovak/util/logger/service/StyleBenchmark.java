@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.List;
+
+import com.michaelrnovak.util.logger.LineStyle;
+
+/**
+ * Building the styling model for displayed lines: what the list adapter
+ * does for every row it binds, without the Android spans.
+ * 
+ *   bench/run.sh StyleBenchmark [corpus size, default 8m]
+ */
+public class StyleBenchmark {
+	
+	public static void main(String[] args) throws Exception {
+		final List<String> records = Corpus.records(Corpus.build(Corpus.ALL, Corpus.size(args, 0, 8 * 1024 * 1024)));
+		
+		Benchmark style = new Benchmark("style/parse") {
+			private final LineStyle mStyle = new LineStyle();
+			
+			protected long run() {
+				long styled = 0;
+				
+				for (int i = 0; i < records.size(); i++) {
+					if (mStyle.parse(records.get(i))) {
+						styled += mStyle.tagEnd;
+					}
+				}
+				
+				consume(styled);
+				return records.size();
+			}
+		};
+		
+		Benchmark.measure(5, 10, style);
+	}
+}
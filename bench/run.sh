@@ -0,0 +1,25 @@
+#!/bin/sh
+# Compiles the plain-Java service classes (everything that does not import
+# android.*) together with the benchmarks and runs one of them on the host
+# JVM, reading its corpus from test/fixtures.
+#
+#   bench/run.sh ParserBenchmark [args]
+
+cd "$(dirname "$0")/.." || exit 1
+
+if [ $# -lt 1 ]; then
+	echo "usage: $0 <benchmark> [args]" >&2
+	ls bench/com/michaelrnovak/util/logger/service | sed -n 's/\(.*Benchmark\)\.java$/  \1/p' | grep -v '^  Benchmark$' >&2
+	exit 2
+fi
+
+NAME=$1
+shift
+
+OUT=${OUT:-/tmp/logger-bench}
+rm -rf "$OUT" && mkdir -p "$OUT" || exit 1
+
+SOURCES=$(grep -L '^import android' src/com/michaelrnovak/util/logger/service/*.java src/com/michaelrnovak/util/logger/LineStyle.java)
+
+javac -encoding UTF-8 -nowarn -d "$OUT" $SOURCES $(find bench -name '*.java') || exit 1
+exec java ${JAVA_OPTS:--Xmx1g} -cp "$OUT" -Dfixtures=test/fixtures com.michaelrnovak.util.logger.service.$NAME "$@"
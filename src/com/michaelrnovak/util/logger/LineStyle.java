@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger;
+
+import com.michaelrnovak.util.logger.service.LogcatParser;
+
+/**
+ * Where the styled parts of a displayed log line are: the level label and
+ * the tag. Kept free of Android types so the styling rules can be worked on
+ * and measured off the device; one instance is reused for every row.
+ */
+public class LineStyle {
+	
+	/** The level char, or 'E' for levels the display has no color for. */
+	public char level;
+	public int labelStart;
+	/** Start and end of the tag, or -1 if the line has no ':' after it. */
+	public int tagStart;
+	public int tagEnd;
+	
+	/**
+	 * Finds the styled parts of the line. Returns false for lines that are
+	 * not in the brief or time format, which are shown in a single color.
+	 */
+	public boolean parse(CharSequence line) {
+		int s = LogcatParser.sourcePrefixLength(line);
+		s += timeHeaderLength(line, s);
+		
+		if (line.length() - s < 4 || line.charAt(s + 1) != '/') {
+			return false;
+		}
+		
+		char c = line.charAt(s);
+		level = isColored(c) ? c : 'E';
+		labelStart = s;
+		tagStart = -1;
+		tagEnd = -1;
+		
+		for (int i = s + 2; i < line.length(); i++) {
+			if (line.charAt(i) == ':') {
+				tagStart = s + 2;
+				tagEnd = i;
+				break;
+			}
+		}
+		
+		return true;
+	}
+	
+	// "MM-DD HH:MM:SS.mmm " as written by -v time and the kernel source
+	private static int timeHeaderLength(CharSequence line, int s) {
+		if (line.length() - s > 19 && line.charAt(s + 2) == '-' && line.charAt(s + 5) == ' '
+				&& line.charAt(s + 8) == ':' && line.charAt(s + 11) == ':'
+				&& line.charAt(s + 14) == '.' && line.charAt(s + 18) == ' ') {
+			return 19;
+		}
+		
+		return 0;
+	}
+	
+	private static boolean isColored(char c) {
+		return c == 'V' || c == 'D' || c == 'I' || c == 'W' || c == 'E';
+	}
+}
@@ -34,6 +34,7 @@ import android.os.IBinder;
 import android.os.Message;
 import android.os.RemoteException;
 import android.text.SpannableString;
+import android.text.style.BackgroundColorSpan;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.StyleSpan;
 import android.util.Log;
@@ -42,31 +43,47 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.ViewGroup.LayoutParams;
+import android.widget.BaseAdapter;
 import android.widget.EditText;
-import android.widget.LinearLayout;
-import android.widget.ScrollView;
+import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.michaelrnovak.util.logger.service.ChunkQueue;
 import com.michaelrnovak.util.logger.service.ILogProcessor;
+import com.michaelrnovak.util.logger.service.LineChunk;
 import com.michaelrnovak.util.logger.service.LogProcessor;
+import com.michaelrnovak.util.logger.service.PipelineStats;
+import com.michaelrnovak.util.logger.service.RingScrollback;
+import com.michaelrnovak.util.logger.service.Scrollback;
+import com.michaelrnovak.util.logger.service.SearchMatcher;
+import com.michaelrnovak.util.logger.service.TriggerRules;
 
 import java.io.File;
-import java.util.HashMap;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
 
 public class Logger extends Activity {
 	private ILogProcessor mService;
-	private ScrollView mScrollView;
-	private LinearLayout mLines;
+	private ListView mLines;
+	private TextView mStats;
+	private LogAdapter mAdapter;
+	private Scrollback<String> mLog;
+	private Scrollback<int[]> mSpans;
 	private AlertDialog mDialog;
 	private ProgressDialog mProgressDialog;
 	private int mFilter = -1;
-	private int mBuffer = 0;
+	private boolean[] mBuffers = {true, false, false};
 	private int mLogType = 0;
 	private String mFilterTag = "";
+	private String mSearchQuery = "";
+	private boolean mSearchMatchesOnly = false;
+	private int mOverflowPolicy = ChunkQueue.POLICY_DROP_OLDEST;
+	private boolean mPaused = false;
+	private boolean mShowStats = false;
+	private boolean mCollapseRepeats = true;
 	private boolean mServiceRunning = false;
-	public int MAX_LINES = 250;
+	public int MAX_LINES = 20000;
 	public static final int DIALOG_FILTER_ID = 1;
 	public static final int DIALOG_SAVE_ID = 2;
 	public static final int DIALOG_SAVE_PROGRESS_ID = 3;
@@ -74,16 +91,29 @@ public class Logger extends Activity {
 	public static final int DIALOG_BUFFER_ID = 5;
 	public static final int DIALOG_TYPE_ID = 6;
 	public static final int DIALOG_TAG_ID = 7;
+	public static final int DIALOG_SEARCH_ID = 8;
+	public static final int DIALOG_OVERFLOW_ID = 9;
+	public static final int DIALOG_TRIGGERS_ID = 10;
 	public static final int FILTER_OPTION = Menu.FIRST;
 	public static final int EMAIL_OPTION = Menu.FIRST + 1;
 	public static final int SAVE_OPTION = Menu.FIRST + 2;
 	public static final int BUFFER_OPTION = Menu.FIRST + 3;
 	public static final int TYPE_OPTION = Menu.FIRST + 4;
 	public static final int TAG_OPTION = Menu.FIRST + 5;
+	public static final int CAPTURE_OPTION = Menu.FIRST + 6;
+	public static final int SEARCH_OPTION = Menu.FIRST + 7;
+	public static final int OVERFLOW_OPTION = Menu.FIRST + 8;
+	public static final int PAUSE_OPTION = Menu.FIRST + 9;
+	public static final int STATS_OPTION = Menu.FIRST + 10;
+	public static final int TRIGGERS_OPTION = Menu.FIRST + 11;
+	public static final int COLLAPSE_OPTION = Menu.FIRST + 12;
+	private static final long STATS_INTERVAL = 1000;
+	private static final int SNAPSHOT_LINES = 2000;
 	final CharSequence[] items = {"Debug", "Error", "Info", "Verbose", "Warn", "All"};
 	final char[] mFilters = {'D', 'E', 'I', 'V', 'W'};
 	final CharSequence[] buffers = {"Main", "Radio", "Events"};
-	final CharSequence[] types = {"Logcat", "Dmesg"};
+	final CharSequence[] types = {"Logcat", "Dmesg", "Replay Capture", "Synthetic Load"};
+	final CharSequence[] overflowPolicies = {"Slow down reader", "Drop oldest lines", "Sample lines"};
 	
     /** Called when the activity is first created. */
     @Override
@@ -91,9 +121,12 @@ public class Logger extends Activity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
         
-        mScrollView = (ScrollView) findViewById(R.id.scrollView);
-        mLines = (LinearLayout) findViewById(R.id.lines);
-        
+        mLog = new RingScrollback<String>(MAX_LINES);
+        mSpans = new RingScrollback<int[]>(MAX_LINES);
+        mAdapter = new LogAdapter();
+        mLines = (ListView) findViewById(R.id.lines);
+        mLines.setAdapter(mAdapter);
+        mStats = (TextView) findViewById(R.id.stats);
     }
     
     @Override
@@ -102,7 +135,7 @@ public class Logger extends Activity {
     	bindService(new Intent(this, LogProcessor.class), mConnection, Context.BIND_AUTO_CREATE);
     	
     	//little housekeeping.
-    	File f = new File("/sdcard/tmp.log");
+    	File f = new File("/sdcard/" + LogProcessor.ATTACHMENT_FILE);
     	if (f.exists()) {
     		f.deleteOnExit();
     	}
@@ -112,20 +145,40 @@ public class Logger extends Activity {
     @Override
     public void onPause() {
     	super.onPause();
+    	mHandler.removeCallbacks(mStatsUpdater);
     	unbindService(mConnection);
     }
     
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
     	
-    	MenuItem item = menu.getItem(0);
+    	MenuItem item = menu.findItem(FILTER_OPTION);
     	
-    	if (mBuffer != 0) {
+    	if (!mBuffers[0]) {
     		item.setEnabled(false);
     	} else {
     		item.setEnabled(true);
     	}
     	
+    	MenuItem capture = menu.findItem(CAPTURE_OPTION);
+    	
+    	if (isBackgroundCapture()) {
+    		capture.setTitle("Stop Capture");
+    	} else {
+    		capture.setTitle("Background Capture");
+    	}
+    	
+    	menu.findItem(STATS_OPTION).setTitle(mShowStats ? "Hide Stats" : "Show Stats");
+    	menu.findItem(COLLAPSE_OPTION).setTitle(mCollapseRepeats ? "Show Repeats" : "Collapse Repeats");
+    	
+    	MenuItem pause = menu.findItem(PAUSE_OPTION);
+    	
+    	if (mPaused) {
+    		pause.setTitle("Resume").setIcon(android.R.drawable.ic_media_play);
+    	} else {
+    		pause.setTitle("Pause").setIcon(android.R.drawable.ic_media_pause);
+    	}
+    	
     	return super.onPrepareOptionsMenu(menu);
     }
     
@@ -133,17 +186,24 @@ public class Logger extends Activity {
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
     	
-    	if (mBuffer == 0) {
+    	if (mBuffers[0]) {
     		menu.add(0, FILTER_OPTION, 1, "Filter Log").setIcon(android.R.drawable.ic_menu_view);
     	} else {
     		menu.add(0, FILTER_OPTION, 1, "Filter Log").setIcon(android.R.drawable.ic_menu_view).setEnabled(false);
     	}
     	
+    	menu.add(0, PAUSE_OPTION, 0, "Pause").setIcon(android.R.drawable.ic_media_pause);
     	menu.add(0, TAG_OPTION, 2, "Tag Filter").setIcon(android.R.drawable.ic_menu_sort_alphabetically);
     	menu.add(0, BUFFER_OPTION, 3, "Choose Buffer").setIcon(android.R.drawable.ic_menu_manage);
     	menu.add(0, EMAIL_OPTION, 4, "Email Log").setIcon(android.R.drawable.ic_menu_send);
     	menu.add(0, SAVE_OPTION, 5, "Save Log").setIcon(android.R.drawable.ic_menu_save);
     	menu.add(0, TYPE_OPTION, 6, "Log Type").setIcon(android.R.drawable.ic_menu_set_as);
+    	menu.add(0, CAPTURE_OPTION, 7, "Background Capture").setIcon(android.R.drawable.ic_menu_recent_history);
+    	menu.add(0, SEARCH_OPTION, 8, "Search").setIcon(android.R.drawable.ic_menu_search);
+    	menu.add(0, OVERFLOW_OPTION, 9, "When Behind").setIcon(android.R.drawable.ic_menu_more);
+    	menu.add(0, STATS_OPTION, 10, "Show Stats").setIcon(android.R.drawable.ic_menu_info_details);
+    	menu.add(0, TRIGGERS_OPTION, 11, "Incident Triggers").setIcon(android.R.drawable.ic_menu_report_image);
+    	menu.add(0, COLLAPSE_OPTION, 12, "Show Repeats").setIcon(android.R.drawable.ic_menu_agenda);
     	
     	return super.onCreateOptionsMenu(menu);
     }
@@ -169,6 +229,27 @@ public class Logger extends Activity {
     	case TAG_OPTION:
     		onCreateDialog(DIALOG_TAG_ID);
     		break;
+    	case CAPTURE_OPTION:
+    		toggleBackgroundCapture();
+    		break;
+    	case SEARCH_OPTION:
+    		onCreateDialog(DIALOG_SEARCH_ID);
+    		break;
+    	case OVERFLOW_OPTION:
+    		onCreateDialog(DIALOG_OVERFLOW_ID);
+    		break;
+    	case PAUSE_OPTION:
+    		togglePause();
+    		break;
+    	case STATS_OPTION:
+    		toggleStats();
+    		break;
+    	case TRIGGERS_OPTION:
+    		onCreateDialog(DIALOG_TRIGGERS_ID);
+    		break;
+    	case COLLAPSE_OPTION:
+    		toggleCollapse();
+    		break;
     	default:
     		break;
     	}
@@ -195,14 +276,13 @@ public class Logger extends Activity {
     		mDialog = builder.create();
     		break;
     	case DIALOG_SAVE_PROGRESS_ID:
-    		mProgressDialog = ProgressDialog.show(this, "", "Saving...", true);
-    		return mProgressDialog;
+    		return showProgress("Saving...");
     	case DIALOG_EMAIL_ID:
-    		mProgressDialog = ProgressDialog.show(this, "", "Generating attachment...", true);
-    		return mProgressDialog;
+    		return showProgress("Generating attachment...");
     	case DIALOG_BUFFER_ID:
     		builder.setTitle("Select a buffer");
-    		builder.setSingleChoiceItems(buffers, mBuffer, mBufferListener);
+    		builder.setMultiChoiceItems(buffers, mBuffers, mBufferListener);
+    		builder.setPositiveButton("OK", mBufferDoneListener);
     		mDialog = builder.create();
     		break;
     	case DIALOG_TYPE_ID:
@@ -221,6 +301,34 @@ public class Logger extends Activity {
     		builder.setPositiveButton("Filter", mTagListener);
     		mDialog = builder.create();
     		break;
+    	case DIALOG_SEARCH_ID:
+    		builder.setTitle("Search for words or /regex/");
+    		LayoutInflater searchInflater = (LayoutInflater) getSystemService(LAYOUT_INFLATER_SERVICE);
+    		View s = searchInflater.inflate(R.layout.file_save, (ViewGroup) findViewById(R.id.layout_root));
+    		EditText query = (EditText) s.findViewById(R.id.filename);
+    		query.setText(mSearchQuery);
+    		builder.setView(s);
+    		builder.setNegativeButton("Clear", mSearchListener);
+    		builder.setNeutralButton("Highlight", mSearchListener);
+    		builder.setPositiveButton("Show Matches", mSearchListener);
+    		mDialog = builder.create();
+    		break;
+    	case DIALOG_OVERFLOW_ID:
+    		builder.setTitle("When the display falls behind");
+    		builder.setSingleChoiceItems(overflowPolicies, mOverflowPolicy, mOverflowListener);
+    		mDialog = builder.create();
+    		break;
+    	case DIALOG_TRIGGERS_ID:
+    		builder.setTitle("Save an incident on (one per line)");
+    		LayoutInflater triggerInflater = (LayoutInflater) getSystemService(LAYOUT_INFLATER_SERVICE);
+    		View r = triggerInflater.inflate(R.layout.file_save, (ViewGroup) findViewById(R.id.layout_root));
+    		EditText rules = (EditText) r.findViewById(R.id.filename);
+    		rules.setText(currentTriggers());
+    		builder.setView(r);
+    		builder.setNegativeButton("Defaults", mTriggerListener);
+    		builder.setPositiveButton("Save", mTriggerListener);
+    		mDialog = builder.create();
+    		break;
     	default:
     		break;
     	}
@@ -243,12 +351,18 @@ public class Logger extends Activity {
 		}
 	};
 	
-	DialogInterface.OnClickListener mBufferListener = new DialogInterface.OnClickListener() {
+	DialogInterface.OnMultiChoiceClickListener mBufferListener = new DialogInterface.OnMultiChoiceClickListener() {
+		
+		@Override
+		public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+			mBuffers[which] = isChecked;
+		}
+	};
+	
+	DialogInterface.OnClickListener mBufferDoneListener = new DialogInterface.OnClickListener() {
 		
 		@Override
 		public void onClick(DialogInterface dialog, int which) {
-			mBuffer = which;
-			
 			updateBuffer();
 		}
 	};
@@ -297,6 +411,65 @@ public class Logger extends Activity {
 		}
 	};
 	
+	DialogInterface.OnClickListener mOverflowListener = new DialogInterface.OnClickListener() {
+		
+		@Override
+		public void onClick(DialogInterface dialog, int which) {
+			mOverflowPolicy = which;
+			
+			try {
+				mService.setOverflowPolicy(mOverflowPolicy);
+				restartStats();
+			} catch (RemoteException e) {
+				Log.e("Logger", "Service is gone...");
+			}
+			
+			mDialog.dismiss();
+		}
+	};
+	
+	DialogInterface.OnClickListener mSearchListener = new DialogInterface.OnClickListener() {
+		@Override
+		public void onClick(DialogInterface dialog, int which) {
+			EditText et = (EditText) mDialog.findViewById(R.id.filename);
+			String query = (which == -2) ? "" : et.getText().toString().trim();
+			
+			if (query.length() > 0) {
+				try {
+					new SearchMatcher(query, false);
+				} catch (PatternSyntaxException e) {
+					Toast.makeText(Logger.this, "Invalid pattern: " + e.getDescription(), Toast.LENGTH_LONG).show();
+					return;
+				}
+			}
+			
+			mSearchQuery = query;
+			mSearchMatchesOnly = which == -1;
+			
+			try {
+				mService.setSearch(query, mSearchMatchesOnly);
+			} catch (RemoteException e) {
+				Log.e("Logger", "Service is gone...");
+			}
+			
+			mDialog.dismiss();
+		}
+	};
+	
+	DialogInterface.OnClickListener mTriggerListener = new DialogInterface.OnClickListener() {
+		@Override
+		public void onClick(DialogInterface dialog, int which) {
+			EditText et = (EditText) mDialog.findViewById(R.id.filename);
+			String[] rules = (which == -1) ? TriggerRules.split(et.getText().toString()) : TriggerRules.DEFAULTS;
+			
+			try {
+				mService.setTriggers(rules);
+			} catch (RemoteException e) {
+				Log.e("Logger", "Service is gone...");
+			}
+		}
+	};
+	
     public void stopLogging() {
     	unbindService(mConnection);
     	mServiceRunning = false;
@@ -318,50 +491,121 @@ public class Logger extends Activity {
     }
     
     private void handleLogMessage(String line) {
-    	if (mFilter != -1 && line.charAt(0) != mFilters[mFilter]) {
-    		return;
+    	appendLine(line, null);
+    	mAdapter.notifyDataSetChanged();
+    }
+    
+    private void handleLogMessages(ChunkQueue queue) {
+    	long start = System.nanoTime();
+    	LineChunk chunk;
+    	
+    	while ((chunk = queue.poll()) != null) {
+    		if (chunk.reset) {
+    			mLog.clear();
+    			mSpans.clear();
+    		}
+    		
+    		if (chunk.skipped > 0) {
+    			appendLine("--- " + chunk.skipped + " lines skipped ---", null);
+    		}
+    		
+    		for (int i = 0; i < chunk.count; i++) {
+    			appendLine(chunk.lines[i], chunk.spans[i]);
+    		}
+    		
+    		chunk.recycle();
     	}
     	
-    	if (!mFilterTag.equals("")) {
-    		String tag = line.substring(2, line.indexOf("("));
+    	mAdapter.notifyDataSetChanged();
+    	queue.getStats().record(PipelineStats.STAGE_RENDER, System.nanoTime() - start);
+    }
+    
+    /**
+     * Replaces the lines with the tail of a capture that kept running while
+     * the activity was away, highlighting them for the current search.
+     * Live lines then follow through the handler as usual.
+     */
+    private void showSnapshot(List<String> lines) {
+    	SearchMatcher search = (mSearchQuery.length() > 0) ? new SearchMatcher(mSearchQuery, false) : null;
+    	LineStyle style = new LineStyle();
+    	
+    	mLog.clear();
+    	mSpans.clear();
+    	
+    	for (int i = 0; i < lines.size(); i++) {
+    		String line = lines.get(i);
+    		int[] spans = null;
     		
-    		if (!mFilterTag.toLowerCase().equals(tag.toLowerCase().trim())) {
-    			return;
+    		if (search != null) {
+    			int from = style.parse(line) ? Math.max(style.tagStart, 0) : 0;
+    			spans = search.match(line, from);
     		}
+    		
+    		appendLine(line, spans);
     	}
     	
-    	TextView lineView = new TextView(this);
-    	lineView.setTypeface(Typeface.MONOSPACE);
-    	
-    	if (mLogType == 0) {
-    		lineView.setText(new LogFormattedString(line));
-    	} else {
-    		lineView.setText(line);
+    	mAdapter.notifyDataSetChanged();
+    }
+    
+    private void appendLine(String line, int[] spans) {
+    	mLog.add(line);
+    	mSpans.add(spans);
+    }
+    
+    private void clearLines() {
+    	mLog.clear();
+    	mSpans.clear();
+    	mAdapter.notifyDataSetChanged();
+    }
+    
+    private void updateFilter() {
+    	try {
+    		sendFilter();
+    	} catch (RemoteException e) {
+    		Log.e("Logger", "Service is gone...");
     	}
     	
-    	final boolean autoscroll = 
-            (mScrollView.getScrollY() + mScrollView.getHeight() >= mLines.getBottom()) ? true : false;
-    	
-    	mLines.addView(lineView, new LayoutParams(LayoutParams.FILL_PARENT, LayoutParams.WRAP_CONTENT));
+    	mDialog.dismiss();
+    }
+    
+    private void updateBuffer() {
+    	clearLines();
     	
-    	if (mLines.getChildCount() > MAX_LINES) {
-    		mLines.removeViewAt(0);
+    	try {
+    		mService.reset(selectedBuffers());
+    	} catch (RemoteException e) {
+    		Log.e("Logger", "Service is gone...");
     	}
     	
-    	mScrollView.post(new Runnable() {
-    		public void run() {
-    			if (autoscroll == true) {
-    				mScrollView.scrollTo(0, mLines.getBottom() - mScrollView.getHeight());
+    	mDialog.dismiss();
+    }
+    
+    private String selectedBuffers() {
+    	StringBuilder sb = new StringBuilder();
+    	
+    	for (int i = 0; i < buffers.length; i++) {
+    		if (mBuffers[i]) {
+    			if (sb.length() > 0) {
+    				sb.append(',');
     			}
+    			
+    			sb.append(buffers[i]);
     		}
-    	});
+    	}
+    	
+    	if (sb.length() == 0) {
+    		mBuffers[0] = true;
+    		sb.append(buffers[0]);
+    	}
+    	
+    	return sb.toString();
     }
     
-    private void updateFilter() {
-    	mLines.removeAllViews();
+    private void updateLog() {
+    	clearLines();
     	
     	try {
-    		mService.reset(buffers[mBuffer].toString());
+    		mService.restart(mLogType);
     	} catch (RemoteException e) {
     		Log.e("Logger", "Service is gone...");
     	}
@@ -369,11 +613,9 @@ public class Logger extends Activity {
     	mDialog.dismiss();
     }
     
-    private void updateBuffer() {
-    	mLines.removeAllViews();
-    	
+    private void updateFilterTag() {
     	try {
-    		mService.reset(buffers[mBuffer].toString());
+    		sendFilter();
     	} catch (RemoteException e) {
     		Log.e("Logger", "Service is gone...");
     	}
@@ -381,28 +623,132 @@ public class Logger extends Activity {
     	mDialog.dismiss();
     }
     
-    private void updateLog() {
-    	mLines.removeAllViews();
+    private void sendFilter() throws RemoteException {
+    	char level = (mFilter == -1) ? 0 : mFilters[mFilter];
+    	mService.setFilter(level, mFilterTag, -1);
+    }
+    
+    private boolean isBackgroundCapture() {
+    	try {
+    		return mService != null && mService.isBackgroundCapture();
+    	} catch (RemoteException e) {
+    		return false;
+    	}
+    }
+    
+    private void toggleBackgroundCapture() {
+    	boolean enable = !isBackgroundCapture();
     	
     	try {
-    		mService.restart(mLogType);
+    		mService.setBackgroundCapture(enable);
     	} catch (RemoteException e) {
     		Log.e("Logger", "Service is gone...");
+    		return;
     	}
     	
-    	mDialog.dismiss();
+    	if (enable) {
+    		Toast.makeText(this, "Capturing to " + LogProcessor.CAPTURE_DIR, Toast.LENGTH_LONG).show();
+    	} else {
+    		Toast.makeText(this, "Background capture stopped.", Toast.LENGTH_LONG).show();
+    	}
     }
     
-    private void updateFilterTag() {
-    	mLines.removeAllViews();
+    private void togglePause() {
+    	mPaused = !mPaused;
     	
     	try {
-    		mService.reset(buffers[mBuffer].toString());
+    		mService.setPaused(mPaused);
     	} catch (RemoteException e) {
     		Log.e("Logger", "Service is gone...");
     	}
     	
-    	mDialog.dismiss();
+    	if (mPaused) {
+    		setTitle("Logger (paused)");
+    	} else {
+    		setTitle(R.string.app_name);
+    	}
+    }
+    
+    private void toggleCollapse() {
+    	mCollapseRepeats = !mCollapseRepeats;
+    	
+    	try {
+    		mService.setCollapseRepeats(mCollapseRepeats);
+    	} catch (RemoteException e) {
+    		Log.e("Logger", "Service is gone...");
+    	}
+    }
+    
+    private void toggleStats() {
+    	mShowStats = !mShowStats;
+    	mHandler.removeCallbacks(mStatsUpdater);
+    	
+    	if (mShowStats) {
+    		mStats.setVisibility(View.VISIBLE);
+    		mStatsUpdater.run();
+    	} else {
+    		mStats.setVisibility(View.GONE);
+    	}
+    }
+    
+    private void restartStats() {
+    	mHandler.removeCallbacks(mStatsUpdater);
+    	
+    	if (mShowStats) {
+    		mStatsUpdater.run();
+    	}
+    }
+    
+    private final Runnable mStatsUpdater = new Runnable() {
+    	public void run() {
+    		try {
+    			if (mService != null) {
+    				mStats.setText(mService.getStats());
+    			}
+    		} catch (RemoteException e) {
+    			mStats.setText("Service is gone...");
+    		}
+    		
+    		mHandler.postDelayed(this, STATS_INTERVAL);
+    	}
+    };
+    
+    private String currentTriggers() {
+    	StringBuilder text = new StringBuilder();
+    	
+    	try {
+    		String[] rules = mService.getTriggers();
+    		
+    		for (int i = 0; i < rules.length; i++) {
+    			text.append(i > 0 ? "\n" : "").append(rules[i]);
+    		}
+    	} catch (RemoteException e) {
+    		Log.e("Logger", "Service is gone...");
+    	}
+    	
+    	return text.toString();
+    }
+    
+    private void showPending(int pending) {
+    	if (mPaused) {
+    		setTitle("Logger (paused, " + pending + " new lines)");
+    	}
+    }
+    
+    private ProgressDialog showProgress(String message) {
+    	mProgressDialog = new ProgressDialog(this);
+    	mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+    	mProgressDialog.setMessage(message);
+    	mProgressDialog.setCancelable(false);
+    	mProgressDialog.show();
+    	return mProgressDialog;
+    }
+    
+    private void saveProgress(int done, int total) {
+    	if (mProgressDialog != null) {
+    		mProgressDialog.setMax(total);
+    		mProgressDialog.setProgress(done);
+    	}
     }
     
     private void saveResult(String msg) {
@@ -414,9 +760,9 @@ public class Logger extends Activity {
     		Toast.makeText(this, "Log has been saved to file.", Toast.LENGTH_LONG).show();
     	} else if (msg.equals("attachment")) {
     		Intent mail = new Intent(Intent.ACTION_SEND);
-    		mail.setType("text/plain");
+    		mail.setType("application/x-gzip");
     		mail.putExtra(Intent.EXTRA_SUBJECT, "Logger Debug Output");
-    		mail.putExtra(Intent.EXTRA_STREAM, Uri.parse("file:///sdcard/tmp.log"));
+    		mail.putExtra(Intent.EXTRA_STREAM, Uri.parse("file:///sdcard/" + LogProcessor.ATTACHMENT_FILE));
     		mail.putExtra(Intent.EXTRA_TEXT, "Here's the output from my log file. Thanks!");
     		startActivity(Intent.createChooser(mail, "Email:"));
     	}
@@ -426,7 +772,7 @@ public class Logger extends Activity {
     	onCreateDialog(DIALOG_EMAIL_ID);
     	
     	try {
-    		mService.write("tmp.log", mFilterTag);
+    		mService.write(LogProcessor.ATTACHMENT_FILE, mFilterTag);
     	} catch (RemoteException e) {
     		Log.e("Logger", "Error generating email attachment.");
     	}
@@ -444,9 +790,24 @@ public class Logger extends Activity {
     		case LogProcessor.MSG_NEW_LINE:
     			handleLogMessage((String) msg.obj);
     			break;
+    		case LogProcessor.MSG_NEW_LINES:
+    			handleLogMessages((ChunkQueue) msg.obj);
+    			break;
+    		case LogProcessor.MSG_RESET_LOG:
+    			clearLines();
+    			break;
     		case LogProcessor.MSG_LOG_SAVE:
     			saveResult((String) msg.obj);
     			break;
+    		case LogProcessor.MSG_LOG_PROGRESS:
+    			saveProgress(msg.arg1, msg.arg2);
+    			break;
+    		case LogProcessor.MSG_PENDING_LINES:
+    			showPending(msg.arg1);
+    			break;
+    		case LogProcessor.MSG_INCIDENT:
+    			Toast.makeText(Logger.this, "Incident saved to " + msg.obj, Toast.LENGTH_LONG).show();
+    			break;
     		default:
     			super.handleMessage(msg);
     		}
@@ -459,8 +820,23 @@ public class Logger extends Activity {
 			LogProcessor.setHandler(mHandler);
 			
 			try {
-				mService.run(mLogType);
+				// the service skips whatever it already has, so a snapshot is not redelivered first
+				sendFilter();
+				mService.setSearch(mSearchQuery, mSearchMatchesOnly);
+				mService.setOverflowPolicy(mOverflowPolicy);
+				mService.setCollapseRepeats(mCollapseRepeats);
+				mService.setPaused(mPaused);
+				
+				if (mService.isCapturing(mLogType, selectedBuffers())) {
+					showSnapshot(mService.snapshot(SNAPSHOT_LINES));
+				} else {
+					mService.run(mLogType);
+				}
+				
 				mServiceRunning = true;
+				
+				// onPause stopped the updates
+				restartStats();
 			} catch (RemoteException e) {
 				Log.e("Logger", "Could not start logging");
 			}
@@ -472,50 +848,127 @@ public class Logger extends Activity {
 		}
 	};
     
-    private static class LogFormattedString extends SpannableString {
-    	public static final HashMap<Character, Integer> LABEL_COLOR_MAP;
+    private class LogAdapter extends BaseAdapter {
+    	private final LineStyle mStyle = new LineStyle();
+    	
+    	public int getCount() {
+    		return mLog.size();
+    	}
+    	
+    	public Object getItem(int position) {
+    		return mLog.get(position);
+    	}
+    	
+    	public long getItemId(int position) {
+    		return position;
+    	}
     	
-    	public LogFormattedString(String line) {
+    	public View getView(int position, View convertView, ViewGroup parent) {
+    		TextView lineView = (TextView) convertView;
+    		
+    		if (lineView == null) {
+    			lineView = (TextView) getLayoutInflater().inflate(R.layout.log_line, parent, false);
+    		}
+    		
+    		String line = mLog.get(position);
+    		int[] spans = mSpans.get(position);
+    		
+    		// every new chunk rebinds the visible rows; skip those already showing their line
+    		Object key = (spans != null) ? spans : line;
+    		
+    		if (key != null && lineView.getTag() == key) {
+    			return lineView;
+    		}
+    		
+    		lineView.setTag(key);
+    		
+    		if (line == null) {
+    			lineView.setText("");
+    		} else {
+    			lineView.setText(new LogFormattedString(line, spans, mStyle));
+    		}
+    		
+    		return lineView;
+    	}
+    }
+    
+    /**
+     * A log line styled by level. The color and style spans are shared,
+     * immutable instances looked up by level, so binding a row allocates
+     * nothing beyond the string itself.
+     */
+    private static class LogFormattedString extends SpannableString {
+    	private static final int MALFORMED_COLOR = 0xffddaacc;
+    	private static final int HIGHLIGHT_COLOR = 0xff665500;
+    	private static final int MAX_SHARED_HIGHLIGHTS = 16;
+    	private static final int[] LEVEL_COLORS = new int[128];
+    	private static final ForegroundColorSpan[] LABEL_SPANS = new ForegroundColorSpan[128];
+    	private static final ForegroundColorSpan[] TAG_SPANS = new ForegroundColorSpan[128];
+    	private static final StyleSpan BOLD = new StyleSpan(Typeface.BOLD);
+    	private static final StyleSpan ITALIC = new StyleSpan(Typeface.ITALIC);
+    	private static final ForegroundColorSpan MALFORMED = new ForegroundColorSpan(MALFORMED_COLOR);
+    	private static final BackgroundColorSpan[] HIGHLIGHTS = new BackgroundColorSpan[MAX_SHARED_HIGHLIGHTS];
+    	
+    	public LogFormattedString(String line, int[] spans, LineStyle style) {
     		super(line);
     		
-    		try {
-    			
-    			if (line.length() < 4) {
-    				throw new RuntimeException();
-    			}
-    			
-    			if (line.charAt(1) != '/') {
-    				throw new RuntimeException();
-    			}
+    		if (!style.parse(line)) {
+    			setSpan(MALFORMED, 0, line.length(), 0);
+    		} else {
+    			int s = style.labelStart;
     			
-    			Integer labelColor = LABEL_COLOR_MAP.get(line.charAt(0));
+    			setSpan(LABEL_SPANS[style.level], s, s + 1, 0);
+    			setSpan(BOLD, s, s + 1, 0);
     			
-    			if (labelColor == null) {
-    				labelColor = LABEL_COLOR_MAP.get('E');
+    			if (style.tagStart >= 0) {
+    				setSpan(TAG_SPANS[style.level], style.tagStart, style.tagEnd, 0);
+    				setSpan(ITALIC, style.tagStart, style.tagEnd, 0);
     			}
-    			
-    			setSpan(new ForegroundColorSpan(labelColor), 0, 1, 0);
-    			setSpan(new StyleSpan(Typeface.BOLD), 0, 1, 0);
-    			
-    			int leftIdx;
-    			
-    			if ((leftIdx = line.indexOf(':', 2)) >= 0) {
-    				setSpan(new ForegroundColorSpan(labelColor), 2, leftIdx, 0);
-    				setSpan(new StyleSpan(Typeface.ITALIC), 2, leftIdx, 0);
-    			}
-    			
-    		} catch (Exception e) {
-    			setSpan(new ForegroundColorSpan(0xffddaacc), 0, length(), 0);
     		}
+    		
+    		highlight(this, spans);
+    	}
+    	
+    	// a span can only cover one range per string, so each match index has its own
+    	private static void highlight(SpannableString text, int[] spans) {
+    		if (spans == null) {
+    			return;
+    		}
+    		
+    		for (int i = 0; i + 1 < spans.length; i += 2) {
+    			int n = i / 2;
+    			Object span = (n < MAX_SHARED_HIGHLIGHTS) ? HIGHLIGHTS[n] : new BackgroundColorSpan(HIGHLIGHT_COLOR);
+    			text.setSpan(span, spans[i], spans[i + 1], 0);
+    		}
+    	}
+    	
+    	private static void levelColor(char level, int color) {
+    		LEVEL_COLORS[level] = color;
     	}
     	
     	static {
-    		LABEL_COLOR_MAP = new HashMap<Character, Integer>();
-    		LABEL_COLOR_MAP.put('D', 0xff9999ff);
-    		LABEL_COLOR_MAP.put('V', 0xffcccccc);
-    		LABEL_COLOR_MAP.put('I', 0xffeeeeee);
-    		LABEL_COLOR_MAP.put('E', 0xffff9999);
-    		LABEL_COLOR_MAP.put('W', 0xffffff99);
+    		levelColor('D', 0xff9999ff);
+    		levelColor('V', 0xffcccccc);
+    		levelColor('I', 0xffeeeeee);
+    		levelColor('E', 0xffff9999);
+    		levelColor('W', 0xffffff99);
+    		
+    		ForegroundColorSpan errorLabel = new ForegroundColorSpan(LEVEL_COLORS['E']);
+    		ForegroundColorSpan errorTag = new ForegroundColorSpan(LEVEL_COLORS['E']);
+    		
+    		for (int i = 0; i < LEVEL_COLORS.length; i++) {
+    			if (LEVEL_COLORS[i] == 0 || i == 'E') {
+    				LABEL_SPANS[i] = errorLabel;
+    				TAG_SPANS[i] = errorTag;
+    			} else {
+    				LABEL_SPANS[i] = new ForegroundColorSpan(LEVEL_COLORS[i]);
+    				TAG_SPANS[i] = new ForegroundColorSpan(LEVEL_COLORS[i]);
+    			}
+    		}
+    		
+    		for (int i = 0; i < MAX_SHARED_HIGHLIGHTS; i++) {
+    			HIGHLIGHTS[i] = new BackgroundColorSpan(HIGHLIGHT_COLOR);
+    		}
     	}
     }
 }
\ No newline at end of file
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.LinkedList;
+
+/**
+ * Bounded queue of {@link LineChunk}s between the reader and the UI. When
+ * the UI falls behind, the overflow policy decides what gives: the reader
+ * waits, the oldest chunks are dropped, or new chunks are thinned to a
+ * sample. Lines that never reach the UI are counted on the next chunk that
+ * does, so the gap can be shown where it happened.
+ * 
+ * The consumer is signalled once per batch rather than once per chunk:
+ * {@link #offer(LineChunk)} returns true only when the consumer needs to be
+ * woken, and it then drains with {@link #poll()} until null.
+ */
+public class ChunkQueue {
+	
+	public static final int POLICY_BLOCK = 0;
+	public static final int POLICY_DROP_OLDEST = 1;
+	public static final int POLICY_SAMPLE = 2;
+	public static final int SAMPLE_RATE = 8;
+	
+	private final int mCapacity;
+	private final PipelineStats mStats;
+	private final LinkedList<LineChunk> mChunks = new LinkedList<LineChunk>();
+	private volatile int mPolicy = POLICY_DROP_OLDEST;
+	private boolean mSignalled = false;
+	private long mDropped = 0;
+	
+	public ChunkQueue(int capacity, PipelineStats stats) {
+		mCapacity = capacity;
+		mStats = stats;
+	}
+	
+	public int getCapacity() {
+		return mCapacity;
+	}
+	
+	public PipelineStats getStats() {
+		return mStats;
+	}
+	
+	public void setPolicy(int policy) {
+		mPolicy = policy;
+	}
+	
+	/**
+	 * Under the blocking policy, waits up to the timeout for the consumer
+	 * to make room. The reader calls this before taking any lock so the
+	 * consumer is never blocked behind it; if the wait runs out the next
+	 * offer falls back to dropping.
+	 */
+	public void awaitSpace(long timeout) throws InterruptedException {
+		if (mPolicy == POLICY_BLOCK) {
+			waitForSpace(timeout);
+		}
+	}
+	
+	private synchronized void waitForSpace(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		
+		while (mChunks.size() >= mCapacity && remaining > 0) {
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+	}
+	
+	/**
+	 * Queues a chunk, applying the overflow policy. Returns true if the
+	 * consumer has to be signalled.
+	 */
+	public synchronized boolean offer(LineChunk chunk) {
+		chunk.queued = System.nanoTime();
+		
+		if (chunk.created != 0) {
+			mStats.record(PipelineStats.STAGE_BATCH, chunk.queued - chunk.created);
+		}
+		
+		if (mPolicy == POLICY_SAMPLE && mChunks.size() >= mCapacity / 2) {
+			sample(chunk);
+		}
+		
+		while (mChunks.size() >= mCapacity) {
+			LineChunk oldest = mChunks.removeFirst();
+			int lost = oldest.skipped + oldest.count;
+			mDropped += oldest.count;
+			
+			if (oldest.reset) {
+				// the reset still has to happen; carry it on the next chunk
+				LineChunk next = mChunks.isEmpty() ? chunk : mChunks.getFirst();
+				next.reset = true;
+			}
+			
+			oldest.recycle();
+			
+			if (mChunks.isEmpty()) {
+				chunk.skipped += lost;
+			} else {
+				mChunks.getFirst().skipped += lost;
+			}
+		}
+		
+		mChunks.addLast(chunk);
+		
+		return signal();
+	}
+	
+	/**
+	 * Drops everything queued and queues a chunk telling the consumer to
+	 * clear its lines. Returns true if the consumer has to be signalled.
+	 */
+	public synchronized boolean reset() {
+		while (!mChunks.isEmpty()) {
+			mChunks.removeFirst().recycle();
+		}
+		
+		LineChunk chunk = LineChunk.obtain();
+		chunk.reset = true;
+		mChunks.addLast(chunk);
+		notifyAll();
+		
+		return signal();
+	}
+	
+	/**
+	 * Drops everything queued, for a consumer that is about to catch up by
+	 * other means. Lines dropped here are not counted as lost.
+	 */
+	public synchronized void clear() {
+		while (!mChunks.isEmpty()) {
+			mChunks.removeFirst().recycle();
+		}
+		
+		notifyAll();
+	}
+	
+	/**
+	 * Returns the next chunk, or null once the queue is empty, after which
+	 * the next offer signals again.
+	 */
+	public synchronized LineChunk poll() {
+		if (mChunks.isEmpty()) {
+			mSignalled = false;
+			return null;
+		}
+		
+		LineChunk chunk = mChunks.removeFirst();
+		notifyAll();
+		
+		if (chunk.queued != 0) {
+			mStats.record(PipelineStats.STAGE_QUEUE, System.nanoTime() - chunk.queued);
+		}
+		
+		return chunk;
+	}
+	
+	/**
+	 * Forgets an outstanding signal that could not be delivered, so the next
+	 * offer signals again.
+	 */
+	public synchronized void cancelSignal() {
+		mSignalled = false;
+	}
+	
+	public synchronized int size() {
+		return mChunks.size();
+	}
+	
+	/**
+	 * Lines dropped since the queue was created.
+	 */
+	public synchronized long getDropped() {
+		return mDropped;
+	}
+	
+	private boolean signal() {
+		if (mSignalled) {
+			return false;
+		}
+		
+		mSignalled = true;
+		return true;
+	}
+	
+	// keeps every SAMPLE_RATE-th line of the chunk
+	private void sample(LineChunk chunk) {
+		int kept = 0;
+		
+		for (int i = 0; i < chunk.count; i++) {
+			if (i % SAMPLE_RATE == 0) {
+				chunk.lines[kept] = chunk.lines[i];
+				chunk.spans[kept] = chunk.spans[i];
+				kept++;
+			}
+		}
+		
+		for (int i = kept; i < chunk.count; i++) {
+			chunk.lines[i] = null;
+			chunk.spans[i] = null;
+		}
+		
+		mDropped += chunk.count - kept;
+		chunk.skipped += chunk.count - kept;
+		chunk.count = kept;
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last few thousand lines with their arrival times as a pre-roll
+ * and, when a trigger fires, writes the lines from the pre-roll window plus
+ * those arriving in the post-roll window to a file of their own. The
+ * pre-roll keeps lines as bytes, so adding one allocates nothing and only
+ * an incident decodes them; the file is written on a separate thread, so
+ * capture never waits on an incident.
+ */
+public class IncidentRecorder {
+	
+	public static final String PREFIX = "incident-";
+	public static final String SUFFIX = ".log";
+	private static final int AVERAGE_LINE = 128;
+	
+	public interface Listener {
+		void onIncident(File file);
+		void onIncidentFailed(IOException e);
+	}
+	
+	private final File mDir;
+	private final Listener mListener;
+	private final PackedScrollback mLines;
+	private final long[] mTimes;
+	private final int mMaxIncidentLines;
+	private final ScheduledExecutorService mExecutor;
+	private final SimpleDateFormat mFormat = new SimpleDateFormat("yyyyMMdd-HHmmss");
+	private long mTail = 0;
+	private long mPreRoll;
+	private long mPostRoll;
+	private Incident mIncident;
+	
+	private static class Incident {
+		final String rule;
+		final long triggered;
+		final long deadline;
+		final ArrayList<String> lines = new ArrayList<String>();
+		int lost = 0;
+		ScheduledFuture<?> timeout;
+		
+		Incident(String rule, long triggered, long deadline) {
+			this.rule = rule;
+			this.triggered = triggered;
+			this.deadline = deadline;
+		}
+	}
+	
+	/**
+	 * @param capacity the most lines the pre-roll holds, whatever its window
+	 * @param preRoll milliseconds of log to keep from before a trigger
+	 * @param postRoll milliseconds of log to keep from after a trigger
+	 */
+	public IncidentRecorder(File dir, int capacity, long preRoll, long postRoll, Listener listener) {
+		mDir = dir;
+		mListener = listener;
+		mLines = new PackedScrollback(capacity, capacity * AVERAGE_LINE, new TagDictionary());
+		mTimes = new long[capacity];
+		mMaxIncidentLines = capacity * 4;
+		mPreRoll = preRoll;
+		mPostRoll = postRoll;
+		mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "IncidentWriter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	public synchronized void setWindow(long preRoll, long postRoll) {
+		mPreRoll = preRoll;
+		mPostRoll = postRoll;
+	}
+	
+	/**
+	 * Records a parsed line. A non-null rule means the line fired that
+	 * trigger, which opens an incident unless one is already open; the
+	 * triggering line is the last line of the pre-roll.
+	 */
+	public synchronized void add(LogEntry entry, String rule) {
+		mLines.add(entry);
+		added(null, entry, rule);
+	}
+	
+	/**
+	 * Records a line that is only available as a String.
+	 */
+	public synchronized void add(String line, String rule) {
+		mLines.add(line);
+		added(line, null, rule);
+	}
+	
+	// called with this locked once the line is in the pre-roll
+	private void added(String line, LogEntry entry, String rule) {
+		long now = System.nanoTime() / 1000000;
+		
+		mTimes[(int) (mTail % mTimes.length)] = now;
+		mTail++;
+		
+		Incident incident = mIncident;
+		
+		if (incident != null) {
+			if (now >= incident.deadline) {
+				close(incident);
+			} else if (incident.lines.size() < mMaxIncidentLines) {
+				incident.lines.add((line != null) ? line : entry.getLine());
+				return;
+			} else {
+				incident.lost++;
+				return;
+			}
+		}
+		
+		if (rule != null) {
+			open(rule, now);
+		}
+	}
+	
+	/**
+	 * Writes out any open incident with what it has so far and stops the
+	 * writer thread once that is done.
+	 */
+	public synchronized void shutdown() {
+		if (mIncident != null) {
+			close(mIncident);
+		}
+		
+		mExecutor.shutdown();
+	}
+	
+	// called with this locked
+	private void open(String rule, long now) {
+		Incident incident = new Incident(rule, System.currentTimeMillis(), now + mPostRoll);
+		int available = mLines.size();
+		
+		// the pre-roll may hold fewer lines than times, when long lines filled its bytes first
+		for (int i = 0; i < available; i++) {
+			int slot = (int) ((mTail - available + i) % mTimes.length);
+			
+			if (now - mTimes[slot] <= mPreRoll) {
+				incident.lines.add(mLines.get(i));
+			}
+		}
+		
+		mIncident = incident;
+		incident.timeout = mExecutor.schedule(new Runnable() {
+			public void run() {
+				expire();
+			}
+		}, mPostRoll, TimeUnit.MILLISECONDS);
+	}
+	
+	// a quiet log sends no line to notice the deadline, so the timeout closes the incident
+	private synchronized void expire() {
+		if (mIncident != null && System.nanoTime() / 1000000 >= mIncident.deadline) {
+			close(mIncident);
+		}
+	}
+	
+	// called with this locked
+	private void close(final Incident incident) {
+		mIncident = null;
+		incident.timeout.cancel(false);
+		
+		mExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					mListener.onIncident(write(incident));
+				} catch (IOException e) {
+					mListener.onIncidentFailed(e);
+				}
+			}
+		});
+	}
+	
+	// only runs on the writer thread, which is the only user of mFormat
+	private File write(Incident incident) throws IOException {
+		if (!mDir.isDirectory() && !mDir.mkdirs()) {
+			throw new IOException("Cannot create " + mDir);
+		}
+		
+		Date triggered = new Date(incident.triggered);
+		File file = new File(mDir, PREFIX + mFormat.format(triggered) + SUFFIX);
+		
+		for (int i = 1; file.exists(); i++) {
+			file = new File(mDir, PREFIX + mFormat.format(triggered) + "-" + i + SUFFIX);
+		}
+		
+		FileOutputStream out = new FileOutputStream(file);
+		LineWriter writer = new LineWriter();
+		
+		try {
+			writer.open(out.getChannel());
+			writer.write("--- Incident: " + incident.rule + " at " + triggered + " ---", 0);
+			
+			List<String> lines = incident.lines;
+			
+			for (int i = 0; i < lines.size(); i++) {
+				writer.write(lines.get(i), 0);
+			}
+			
+			if (incident.lost > 0) {
+				writer.write("--- " + incident.lost + " more lines not kept ---", 0);
+			}
+			
+			writer.flush();
+		} finally {
+			writer.release();
+			out.close();
+		}
+		
+		return file;
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Queries a file written by {@link IndexedLogWriter}. The index is loaded
+ * once; a query then only reads the blocks whose time range overlaps and
+ * whose level bitmaps have a candidate record, and compares tags as
+ * dictionary ids.
+ */
+public class IndexedLogReader {
+	
+	public interface Callback {
+		/**
+		 * Called for each matching record in file order. Return false to
+		 * stop the query.
+		 */
+		boolean onRecord(long timestamp, char level, String tag, String line);
+	}
+	
+	private final FileInputStream mIn;
+	private final FileChannel mChannel;
+	private final String[] mTags;
+	private final long[][] mLevelBits;
+	private final long[] mBlockOffsets;
+	private final long[] mBlockMin;
+	private final long[] mBlockMax;
+	private final long mIndexOffset;
+	private final int mCount;
+	private ByteBuffer mBlock = ByteBuffer.allocate(LineWriter.BUFFER_SIZE);
+	
+	public IndexedLogReader(File file) throws IOException {
+		mIn = new FileInputStream(file);
+		mChannel = mIn.getChannel();
+		
+		try {
+			ByteBuffer footer = read(mChannel.size() - 16, 16);
+			mIndexOffset = footer.getLong();
+			mCount = footer.getInt();
+			
+			if (footer.getInt() != IndexedLogWriter.MAGIC) {
+				throw new IOException("Not an indexed log: " + file);
+			}
+			
+			ByteBuffer index = read(mIndexOffset, (int) (mChannel.size() - 16 - mIndexOffset));
+			
+			if (index.getInt() != IndexedLogWriter.MAGIC || index.getInt() != IndexedLogWriter.VERSION) {
+				throw new IOException("Unsupported indexed log: " + file);
+			}
+			
+			mTags = new String[index.getInt()];
+			
+			for (int i = 0; i < mTags.length; i++) {
+				byte[] tag = new byte[index.getShort() & 0xffff];
+				index.get(tag);
+				mTags[i] = LogEntry.decode(tag, 0, tag.length);
+			}
+			
+			int words = (mCount + 63) >> 6;
+			mLevelBits = new long[IndexedLogWriter.LEVELS.length() + 1][words];
+			
+			for (int i = 0; i < mLevelBits.length; i++) {
+				for (int w = 0; w < words; w++) {
+					mLevelBits[i][w] = index.getLong();
+				}
+			}
+			
+			int blocks = (mCount + IndexedLogWriter.BLOCK_SIZE - 1) / IndexedLogWriter.BLOCK_SIZE;
+			mBlockOffsets = new long[blocks];
+			mBlockMin = new long[blocks];
+			mBlockMax = new long[blocks];
+			
+			for (int i = 0; i < blocks; i++) {
+				mBlockOffsets[i] = index.getLong();
+				mBlockMin[i] = index.getLong();
+				mBlockMax[i] = index.getLong();
+			}
+		} catch (RuntimeException e) {
+			mIn.close();
+			throw new IOException("Corrupt indexed log: " + file);
+		} catch (IOException e) {
+			mIn.close();
+			throw e;
+		}
+	}
+	
+	public int getCount() {
+		return mCount;
+	}
+	
+	/**
+	 * Finds the records with the given tag (ignoring case, or any tag if
+	 * null or empty), a level at or above minLevel (or any level if 0) and
+	 * a timestamp within [from, to] (or any time if both are negative).
+	 * Records without a timestamp, such as brief-format lines, are outside
+	 * every time range. Returns the number of records passed to the
+	 * callback.
+	 */
+	public int query(String tag, char minLevel, long from, long to, Callback callback) throws IOException {
+		int tagId = -1;
+		
+		if (tag != null && tag.length() > 0) {
+			for (int i = 0; i < mTags.length && tagId < 0; i++) {
+				if (mTags[i].equalsIgnoreCase(tag)) {
+					tagId = i;
+				}
+			}
+			
+			if (tagId < 0) {
+				return 0;
+			}
+		}
+		
+		boolean timed = from >= 0 || to >= 0;
+		long start = (from < 0) ? 0 : from;
+		long end = (to < 0) ? Long.MAX_VALUE : to;
+		long[][] levels = levelsFrom(minLevel);
+		int found = 0;
+		
+		for (int b = 0; b < mBlockOffsets.length; b++) {
+			if (timed && (mBlockMax[b] < start || mBlockMin[b] > end)) {
+				continue;
+			}
+			
+			int first = b * IndexedLogWriter.BLOCK_SIZE;
+			int last = Math.min(mCount, first + IndexedLogWriter.BLOCK_SIZE);
+			
+			if (!anySet(levels, first, last)) {
+				continue;
+			}
+			
+			long blockEnd = (b + 1 < mBlockOffsets.length) ? mBlockOffsets[b + 1] : mIndexOffset;
+			ByteBuffer block = readBlock(mBlockOffsets[b], (int) (blockEnd - mBlockOffsets[b]));
+			
+			for (int n = first; n < last; n++) {
+				int length = block.getInt();
+				char level = (char) block.get();
+				int recordTag = block.getInt();
+				long ts = block.getLong();
+				
+				if (!isSet(levels, n) || (tagId >= 0 && recordTag != tagId) || (timed && (ts < start || ts > end))) {
+					block.position(block.position() + length);
+					continue;
+				}
+				
+				String line = LogEntry.decode(block.array(), block.position(), length);
+				block.position(block.position() + length);
+				found++;
+				
+				if (!callback.onRecord(ts, level, (recordTag >= 0) ? mTags[recordTag] : null, line)) {
+					return found;
+				}
+			}
+		}
+		
+		return found;
+	}
+	
+	public void close() throws IOException {
+		mIn.close();
+	}
+	
+	private long[][] levelsFrom(char minLevel) {
+		if (minLevel == 0) {
+			return mLevelBits;
+		}
+		
+		int min = IndexedLogWriter.levelIndex(minLevel);
+		long[][] levels = new long[IndexedLogWriter.LEVELS.length() - Math.min(min, IndexedLogWriter.LEVELS.length())][];
+		
+		for (int i = 0; i < levels.length; i++) {
+			levels[i] = mLevelBits[min + i];
+		}
+		
+		return levels;
+	}
+	
+	private static boolean isSet(long[][] levels, int n) {
+		for (int i = 0; i < levels.length; i++) {
+			if ((levels[i][n >> 6] & (1L << (n & 63))) != 0) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private static boolean anySet(long[][] levels, int first, int last) {
+		for (int i = 0; i < levels.length; i++) {
+			for (int w = first >> 6; w <= (last - 1) >> 6; w++) {
+				if (levels[i][w] != 0) {
+					return true;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	private ByteBuffer readBlock(long offset, int length) throws IOException {
+		if (mBlock.capacity() < length) {
+			mBlock = ByteBuffer.allocate(length);
+		}
+		
+		mBlock.clear();
+		mBlock.limit(length);
+		readFully(offset, mBlock);
+		mBlock.flip();
+		return mBlock;
+	}
+	
+	private ByteBuffer read(long offset, int length) throws IOException {
+		if (length < 0 || offset < 0) {
+			throw new IOException("Truncated indexed log");
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		readFully(offset, buffer);
+		buffer.flip();
+		return buffer;
+	}
+	
+	private void readFully(long offset, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = mChannel.read(buffer, offset);
+			
+			if (n < 0) {
+				throw new IOException("Truncated indexed log");
+			}
+			
+			offset += n;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+/**
+ * Reads back a file written by {@link IndexedLogWriter}. The level is
+ * pushed down to the index, so blocks without a line at or above it are
+ * never read; the matching records are written out one per line by a
+ * query thread.
+ */
+public class IndexedLogSource implements LogSource {
+	
+	public static final String SUFFIX = ".lidx";
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final byte[] END_OF_LINE = {'\n'};
+	private static final byte[] END_OF_RECORD = {'\n', '\n'};
+	
+	private final File mFile;
+	private final char mMinLevel;
+	private volatile InputStream mIn;
+	private volatile boolean mClosed = false;
+	
+	/**
+	 * @param minLevel the lowest level to read, or 0 for every record
+	 */
+	public IndexedLogSource(File file, char minLevel) {
+		mFile = file;
+		mMinLevel = minLevel;
+	}
+	
+	public InputStream open() throws IOException {
+		final IndexedLogReader reader = new IndexedLogReader(mFile);
+		// the sized pipe constructor is API 9; buffer the writes instead so each line is not a handoff
+		final PipedInputStream in = new PipedInputStream();
+		final OutputStream out = new BufferedOutputStream(new PipedOutputStream(in), BUFFER_SIZE);
+		
+		Thread query = new Thread("IndexQuery") {
+			public void run() {
+				try {
+					reader.query(null, mMinLevel, -1, -1, new IndexedLogReader.Callback() {
+						public boolean onRecord(long timestamp, char level, String tag, String line) {
+							try {
+								out.write(IndexedLogWriter.utf8(line));
+								
+								// a long-format record ends with a blank line
+								out.write((line.indexOf('\n') >= 0) ? END_OF_RECORD : END_OF_LINE);
+							} catch (IOException e) {
+								return false;
+							}
+							
+							return !mClosed;
+						}
+					});
+				} catch (IOException e) {
+					// the reader sees the end of the stream
+				} finally {
+					close(reader, out);
+				}
+			}
+		};
+		
+		mIn = in;
+		query.setDaemon(true);
+		query.start();
+		
+		if (mClosed) {
+			close();
+		}
+		
+		return in;
+	}
+	
+	public void close() {
+		mClosed = true;
+		InputStream in = mIn;
+		
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+	
+	private static void close(IndexedLogReader reader, OutputStream out) {
+		try {
+			out.close();
+		} catch (IOException ignored) {
+		}
+		
+		try {
+			reader.close();
+		} catch (IOException ignored) {
+		}
+	}
+}
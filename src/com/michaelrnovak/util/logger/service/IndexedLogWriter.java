@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes captured lines in the indexed binary format read by
+ * {@link IndexedLogReader}. The file is a run of records followed by an
+ * index and a fixed-size footer:
+ * 
+ * <pre>
+ * record:  int length, byte level, int tagId, long timestamp, UTF-8 line
+ * index:   tag dictionary, one bitmap of record numbers per level,
+ *          and per block of records its file offset and time range
+ * footer:  long indexOffset, int recordCount, int MAGIC
+ * </pre>
+ */
+public class IndexedLogWriter {
+	
+	public static final int MAGIC = 0x4c494458;
+	public static final int VERSION = 1;
+	public static final int BLOCK_SIZE = 256;
+	public static final int RECORD_HEADER = 17;
+	public static final String LEVELS = "VDIWEF";
+	
+	private final FileChannel mChannel;
+	private final ByteBuffer mBuffer = ByteBuffer.allocate(LineWriter.BUFFER_SIZE);
+	private final TagDictionary mTags = new TagDictionary();
+	private final long[][] mLevelBits = new long[LEVELS.length() + 1][];
+	private long[] mBlockOffsets = new long[16];
+	private long[] mBlockMin = new long[16];
+	private long[] mBlockMax = new long[16];
+	private long mPosition = 0;
+	private int mCount = 0;
+	
+	public IndexedLogWriter(FileChannel channel) {
+		mChannel = channel;
+		
+		for (int i = 0; i < mLevelBits.length; i++) {
+			mLevelBits[i] = new long[16];
+		}
+	}
+	
+	/**
+	 * Appends the entry's line as one record, with its level, tag and
+	 * timestamp.
+	 */
+	public void append(LogEntry entry) throws IOException {
+		int length = entry.end - entry.start;
+		int block = mCount / BLOCK_SIZE;
+		long ts = entry.timestamp;
+		
+		if (mCount % BLOCK_SIZE == 0) {
+			if (block == mBlockOffsets.length) {
+				mBlockOffsets = grow(mBlockOffsets);
+				mBlockMin = grow(mBlockMin);
+				mBlockMax = grow(mBlockMax);
+			}
+			
+			mBlockOffsets[block] = mPosition;
+			mBlockMin[block] = Long.MAX_VALUE;
+			mBlockMax[block] = -1;
+		}
+		
+		if (ts >= 0) {
+			mBlockMin[block] = Math.min(mBlockMin[block], ts);
+			mBlockMax[block] = Math.max(mBlockMax[block], ts);
+		}
+		
+		int level = levelIndex(entry.level);
+		long[] bits = mLevelBits[level];
+		
+		if ((mCount >> 6) >= bits.length) {
+			bits = mLevelBits[level] = grow(bits);
+		}
+		
+		bits[mCount >> 6] |= 1L << (mCount & 63);
+		
+		ensure(RECORD_HEADER);
+		mBuffer.putInt(length);
+		mBuffer.put((byte) entry.level);
+		mBuffer.putInt(entry.hasTag() ? mTags.intern(entry.buffer, entry.tagStart, entry.tagEnd) : -1);
+		mBuffer.putLong(ts);
+		put(entry.buffer, entry.start, length);
+		
+		mPosition += RECORD_HEADER + length;
+		mCount++;
+	}
+	
+	/**
+	 * Writes the index and footer. The writer cannot be used afterwards.
+	 */
+	public void finish() throws IOException {
+		long indexOffset = mPosition;
+		
+		ensure(12);
+		mBuffer.putInt(MAGIC);
+		mBuffer.putInt(VERSION);
+		mBuffer.putInt(mTags.size());
+		
+		for (int i = 0; i < mTags.size(); i++) {
+			byte[] tag = utf8(mTags.getName(i));
+			ensure(2);
+			mBuffer.putShort((short) tag.length);
+			put(tag, 0, tag.length);
+		}
+		
+		int words = (mCount + 63) >> 6;
+		
+		for (int i = 0; i < mLevelBits.length; i++) {
+			for (int w = 0; w < words; w++) {
+				ensure(8);
+				mBuffer.putLong(w < mLevelBits[i].length ? mLevelBits[i][w] : 0);
+			}
+		}
+		
+		int blocks = (mCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		
+		for (int i = 0; i < blocks; i++) {
+			ensure(24);
+			mBuffer.putLong(mBlockOffsets[i]);
+			mBuffer.putLong(mBlockMin[i]);
+			mBuffer.putLong(mBlockMax[i]);
+		}
+		
+		ensure(16);
+		mBuffer.putLong(indexOffset);
+		mBuffer.putInt(mCount);
+		mBuffer.putInt(MAGIC);
+		flush();
+	}
+	
+	public int getCount() {
+		return mCount;
+	}
+	
+	/**
+	 * Maps a level character to its bitmap; the last slot holds lines
+	 * without a recognised level.
+	 */
+	static int levelIndex(char level) {
+		int i = LEVELS.indexOf(level == 'A' ? 'F' : level);
+		return (i < 0 || level == 0) ? LEVELS.length() : i;
+	}
+	
+	private void put(byte[] b, int offset, int length) throws IOException {
+		int end = offset + length;
+		
+		while (offset < end) {
+			if (!mBuffer.hasRemaining()) {
+				flush();
+			}
+			
+			int n = Math.min(mBuffer.remaining(), end - offset);
+			mBuffer.put(b, offset, n);
+			offset += n;
+		}
+	}
+	
+	private void ensure(int bytes) throws IOException {
+		if (mBuffer.remaining() < bytes) {
+			flush();
+		}
+	}
+	
+	private void flush() throws IOException {
+		mBuffer.flip();
+		
+		while (mBuffer.hasRemaining()) {
+			mChannel.write(mBuffer);
+		}
+		
+		mBuffer.clear();
+	}
+	
+	private static long[] grow(long[] array) {
+		long[] grown = new long[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+	
+	static byte[] utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return s.getBytes();
+		}
+	}
+}
@@ -0,0 +1,619 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the kernel log. Records are read from /dev/kmsg where the kernel
+ * has it, otherwise from /proc/kmsg, otherwise dmesg is polled and lines
+ * already seen are skipped by their timestamp. Whatever the origin, every
+ * record comes out as a -v time line with tag "kernel", the kernel priority
+ * mapped to a log level and the uptime turned into wall-clock time, so it
+ * parses into the same entries as logcat output.
+ */
+public class KernelLogSource implements LogSource {
+	
+	public static final String TAG = "kernel";
+	private static final String DEV_KMSG = "/dev/kmsg";
+	private static final String PROC_KMSG = "/proc/kmsg";
+	private static final long POLL_INTERVAL = 1000;
+	private static final int MAX_FAILURES = 3;
+	private static final int QUEUE_SIZE = 4096;
+	private static final long POLL_TIMEOUT = 250;
+	// kernel priorities 0 (emergency) to 7 (debug)
+	private static final char[] LEVELS = {'F', 'F', 'F', 'E', 'W', 'I', 'I', 'D'};
+	
+	private final String mKmsg;
+	private final long mBootTime;
+	private volatile KernelStream mStream;
+	private volatile boolean mClosed = false;
+	
+	public KernelLogSource() {
+		this(null, -1);
+	}
+	
+	/**
+	 * Follows a file of "&lt;6&gt;[   12.345678] message" lines, as
+	 * /proc/kmsg gives them, with times counted from the given boot time.
+	 */
+	KernelLogSource(String kmsg, long bootTime) {
+		mKmsg = kmsg;
+		mBootTime = bootTime;
+	}
+	
+	public InputStream open() throws IOException {
+		KernelStream stream;
+		
+		if (mKmsg != null) {
+			stream = new KmsgStream(mKmsg, false);
+		} else if (new File(DEV_KMSG).canRead()) {
+			stream = new KmsgStream(DEV_KMSG, true);
+		} else if (new File(PROC_KMSG).canRead()) {
+			stream = new KmsgStream(PROC_KMSG, false);
+		} else {
+			stream = new DmesgStream();
+		}
+		
+		mStream = stream;
+		
+		if (mClosed) {
+			stream.close();
+		}
+		
+		return stream;
+	}
+	
+	public void close() {
+		mClosed = true;
+		KernelStream stream = mStream;
+		
+		if (stream != null) {
+			stream.close();
+		}
+	}
+	
+	/**
+	 * Turns kernel records into log lines, one record at a time.
+	 */
+	private abstract class KernelStream extends InputStream {
+		private final StringBuilder mText = new StringBuilder(256);
+		private final Calendar mCalendar = Calendar.getInstance();
+		private final long mBoot = (mBootTime >= 0) ? mBootTime : bootTime();
+		private byte[] mLine = new byte[256];
+		private int mPos = 0;
+		private int mEnd = 0;
+		protected volatile boolean mStopped = false;
+		
+		/**
+		 * Blocks until the next record is available and passes it to
+		 * {@link #emit}. Returns false at the end or once closed.
+		 */
+		protected abstract boolean nextRecord() throws IOException;
+		
+		/**
+		 * Records already read that are waiting to be emitted.
+		 */
+		protected int buffered() {
+			return 0;
+		}
+		
+		protected void emit(int priority, long micros, CharSequence message) {
+			long time = mBoot + micros / 1000;
+			mCalendar.setTimeInMillis(time);
+			
+			mText.setLength(0);
+			pad(mCalendar.get(Calendar.MONTH) + 1, 2).append('-');
+			pad(mCalendar.get(Calendar.DAY_OF_MONTH), 2).append(' ');
+			pad(mCalendar.get(Calendar.HOUR_OF_DAY), 2).append(':');
+			pad(mCalendar.get(Calendar.MINUTE), 2).append(':');
+			pad(mCalendar.get(Calendar.SECOND), 2).append('.');
+			pad(mCalendar.get(Calendar.MILLISECOND), 3).append(' ');
+			mText.append(LEVELS[priority & 7]).append('/').append(TAG).append("(    0): ");
+			mText.append(message).append('\n');
+			
+			byte[] b = IndexedLogWriter.utf8(mText.toString());
+			
+			if (b.length > mLine.length) {
+				mLine = new byte[b.length * 2];
+			}
+			
+			System.arraycopy(b, 0, mLine, 0, b.length);
+			mPos = 0;
+			mEnd = b.length;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			
+			while (mPos >= mEnd) {
+				if (mStopped || !nextRecord()) {
+					return -1;
+				}
+			}
+			
+			int n = Math.min(len, mEnd - mPos);
+			System.arraycopy(mLine, mPos, b, off, n);
+			mPos += n;
+			
+			return n;
+		}
+		
+		@Override
+		public int available() {
+			return (mEnd - mPos) + buffered();
+		}
+		
+		@Override
+		public void close() {
+			mStopped = true;
+		}
+		
+		private StringBuilder pad(int value, int width) {
+			String s = String.valueOf(value);
+			
+			for (int i = s.length(); i < width; i++) {
+				mText.append('0');
+			}
+			
+			return mText.append(s);
+		}
+	}
+	
+	/**
+	 * Reads a kmsg device on a helper thread. A read blocked on the device
+	 * does not return when it is closed, only when the next record arrives,
+	 * so the reader waits on a queue instead and can stop at any time; the
+	 * helper exits after the next record.
+	 * 
+	 * /dev/kmsg gives one structured record per read,
+	 * "priority,sequence,microseconds,flags;message" followed by indented
+	 * key=value lines that are skipped, starting with the oldest record in
+	 * the ring buffer. /proc/kmsg gives "&lt;6&gt;[   12.345678] message"
+	 * lines, and reading consumes them, so only new ones are seen.
+	 */
+	private class KmsgStream extends KernelStream {
+		private final FileInputStream mIn;
+		private final boolean mStructured;
+		private final BlockingQueue<String> mRecords = new ArrayBlockingQueue<String>(QUEUE_SIZE);
+		private final Thread mPump;
+		private volatile boolean mEnded = false;
+		private long mLastSequence = -1;
+		
+		KmsgStream(String path, boolean structured) throws IOException {
+			mIn = new FileInputStream(path);
+			mStructured = structured;
+			mPump = new Thread("kmsg") {
+				public void run() {
+					pump();
+				}
+			};
+			mPump.setDaemon(true);
+			mPump.start();
+		}
+		
+		@Override
+		protected boolean nextRecord() throws IOException {
+			String record = null;
+			
+			while (record == null) {
+				if (mStopped || (mEnded && mRecords.isEmpty())) {
+					return false;
+				}
+				
+				try {
+					record = mRecords.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			
+			if (mStructured) {
+				emitRecord(record);
+			} else {
+				emitLine(this, record, 6);
+			}
+			
+			return true;
+		}
+		
+		@Override
+		protected int buffered() {
+			return mRecords.size();
+		}
+		
+		@Override
+		public void close() {
+			super.close();
+			
+			try {
+				mIn.close();
+			} catch (IOException ignored) {
+			}
+		}
+		
+		private void pump() {
+			byte[] buf = new byte[8192];
+			int failures = 0;
+			int start = 0;
+			
+			while (!mStopped) {
+				int n;
+				
+				try {
+					n = mIn.read(buf, start, buf.length - start);
+				} catch (IOException e) {
+					// EPIPE: records were overwritten before we read them; carry on
+					if (++failures > MAX_FAILURES) {
+						break;
+					}
+					
+					continue;
+				}
+				
+				if (n <= 0) {
+					break;
+				}
+				
+				failures = 0;
+				
+				if (mStructured) {
+					queue(LogEntry.decode(buf, 0, n));
+					continue;
+				}
+				
+				// plain lines may arrive split across reads
+				int end = start + n;
+				int lineStart = 0;
+				
+				for (int i = start; i < end; i++) {
+					if (buf[i] == '\n') {
+						queue(LogEntry.decode(buf, lineStart, i - lineStart));
+						lineStart = i + 1;
+					}
+				}
+				
+				start = end - lineStart;
+				System.arraycopy(buf, lineStart, buf, 0, start);
+				
+				if (start == buf.length) {
+					queue(LogEntry.decode(buf, 0, start));
+					start = 0;
+				}
+			}
+			
+			mEnded = true;
+		}
+		
+		// waits while the reader is behind rather than dropping the record; meanwhile the kernel keeps the rest
+		private void queue(String record) {
+			try {
+				while (!mStopped) {
+					if (mRecords.offer(record, POLL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		private void emitRecord(String record) {
+			int semicolon = record.indexOf(';');
+			
+			if (semicolon < 0) {
+				return;
+			}
+			
+			int end = record.indexOf('\n', semicolon);
+			String[] fields = record.substring(0, semicolon).split(",");
+			
+			if (fields.length < 3) {
+				return;
+			}
+			
+			try {
+				int priority = Integer.parseInt(fields[0]);
+				long sequence = Long.parseLong(fields[1]);
+				long micros = Long.parseLong(fields[2]);
+				
+				if (sequence > mLastSequence) {
+					mLastSequence = sequence;
+					emit(priority, micros, record.substring(semicolon + 1, (end < 0) ? record.length() : end));
+				}
+			} catch (NumberFormatException e) {
+				// not a record header; skip it
+			}
+		}
+	}
+	
+	/**
+	 * Runs dmesg every POLL_INTERVAL and passes on the lines newer than the
+	 * last one seen.
+	 */
+	private class DmesgStream extends KernelStream {
+		private final ArrayList<String> mBatch = new ArrayList<String>();
+		private final DmesgTail mTail = new DmesgTail();
+		private int mNext = 0;
+		private boolean mFirstPoll = true;
+		private volatile Process mProcess;
+		
+		@Override
+		protected boolean nextRecord() throws IOException {
+			while (mNext >= mBatch.size()) {
+				if (!mFirstPoll && !sleep()) {
+					return false;
+				}
+				
+				poll();
+				mFirstPoll = false;
+			}
+			
+			emitLine(this, mBatch.get(mNext++), 6);
+			return true;
+		}
+		
+		@Override
+		protected int buffered() {
+			return mBatch.size() - mNext;
+		}
+		
+		@Override
+		public void close() {
+			super.close();
+			
+			Process process = mProcess;
+			
+			if (process != null) {
+				process.destroy();
+			}
+			
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+		
+		private void poll() throws IOException {
+			mBatch.clear();
+			mNext = 0;
+			
+			Process process = Runtime.getRuntime().exec("dmesg");
+			mProcess = process;
+			
+			if (mStopped) {
+				process.destroy();
+			}
+			
+			BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			
+			try {
+				mTail.read(in, mBatch);
+			} finally {
+				in.close();
+				process.destroy();
+				mProcess = null;
+			}
+		}
+		
+		private synchronized boolean sleep() {
+			try {
+				wait(POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			
+			return !mStopped;
+		}
+	}
+	
+	/**
+	 * Picks out the lines of a dmesg dump that earlier dumps did not have.
+	 * Lines with the same timestamp are told apart by their position among
+	 * those with that timestamp. Lines without one can't be told apart from
+	 * repeats, so only the first dump's are kept.
+	 */
+	static class DmesgTail {
+		private long mLastMicros = -1;
+		private int mSeenAtLast = 0;
+		private boolean mFirst = true;
+		
+		void read(BufferedReader in, List<String> lines) throws IOException {
+			long lastMicros = mLastMicros;
+			int seenAtLast = mSeenAtLast;
+			int sameCount = 0;
+			String line;
+			
+			while ((line = in.readLine()) != null) {
+				long micros = timestamp(line);
+				
+				if (micros < 0) {
+					if (mFirst) {
+						lines.add(line);
+					}
+					
+					continue;
+				}
+				
+				if (micros == lastMicros) {
+					sameCount++;
+				} else {
+					sameCount = 1;
+				}
+				
+				lastMicros = micros;
+				
+				if (micros > mLastMicros || (micros == mLastMicros && sameCount > mSeenAtLast)) {
+					lines.add(line);
+				}
+				
+				seenAtLast = sameCount;
+			}
+			
+			mFirst = false;
+			
+			if (lastMicros >= mLastMicros) {
+				mLastMicros = lastMicros;
+				mSeenAtLast = seenAtLast;
+			}
+		}
+	}
+	
+	/**
+	 * Emits a line in the "&lt;6&gt;[   12.345678] message" form, either part
+	 * being optional.
+	 */
+	private static void emitLine(KernelStream stream, String line, int defaultPriority) {
+		int priority = defaultPriority;
+		int p = 0;
+		
+		if (line.length() > 2 && line.charAt(0) == '<') {
+			int close = line.indexOf('>');
+			
+			if (close > 1) {
+				try {
+					priority = Integer.parseInt(line.substring(1, close)) & 7;
+					p = close + 1;
+				} catch (NumberFormatException e) {
+					// leave the line as it is
+				}
+			}
+		}
+		
+		long micros = timestamp(line);
+		
+		if (micros >= 0) {
+			p = line.indexOf(']', p) + 1;
+			
+			if (p < line.length() && line.charAt(p) == ' ') {
+				p++;
+			}
+		} else {
+			micros = 0;
+		}
+		
+		stream.emit(priority, micros, line.substring(p));
+	}
+	
+	/**
+	 * Returns the "[seconds.micros]" stamp of a kernel line in microseconds,
+	 * or -1 if it has none.
+	 */
+	static long timestamp(String line) {
+		int open = line.indexOf('[');
+		
+		if (open < 0 || open > 4) {
+			return -1;
+		}
+		
+		int close = line.indexOf(']', open);
+		
+		if (close < 0) {
+			return -1;
+		}
+		
+		long seconds = 0;
+		long micros = 0;
+		int fraction = -1;
+		boolean any = false;
+		
+		for (int i = open + 1; i < close; i++) {
+			char c = line.charAt(i);
+			
+			if (c == ' ' && !any) {
+				continue;
+			} else if (c == '.' && fraction < 0) {
+				fraction = 0;
+			} else if (c >= '0' && c <= '9') {
+				any = true;
+				
+				if (fraction < 0) {
+					seconds = seconds * 10 + (c - '0');
+				} else if (fraction < 6) {
+					micros = micros * 10 + (c - '0');
+					fraction++;
+				}
+			} else {
+				return -1;
+			}
+		}
+		
+		if (!any) {
+			return -1;
+		}
+		
+		while (fraction >= 0 && fraction < 6) {
+			micros *= 10;
+			fraction++;
+		}
+		
+		return seconds * 1000000 + micros;
+	}
+	
+	/**
+	 * Wall-clock time of boot, from /proc/uptime. If that can't be read the
+	 * current time is used, so kernel times read as offsets from now.
+	 */
+	private static long bootTime() {
+		long now = System.currentTimeMillis();
+		
+		try {
+			BufferedReader in = new BufferedReader(new FileReader("/proc/uptime"));
+			
+			try {
+				String line = in.readLine();
+				
+				if (line != null) {
+					int space = line.indexOf(' ');
+					double uptime = Double.parseDouble((space > 0) ? line.substring(0, space) : line);
+					return now - (long) (uptime * 1000);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// fall through
+		} catch (NumberFormatException e) {
+			// fall through
+		}
+		
+		return now;
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+/**
+ * Collects lines on the reader thread and hands them on as {@link LineChunk}s.
+ * A chunk is delivered when it is full or when its first line is older than
+ * {@link #FLUSH_INTERVAL} milliseconds, whichever comes first. The reader
+ * should also call {@link #flush()} when no more input is pending so a
+ * quiet log is never held back.
+ */
+public class LineBatcher {
+	
+	public static final long FLUSH_INTERVAL = 16;
+	
+	public interface Listener {
+		void onChunk(LineChunk chunk);
+	}
+	
+	private final Listener mListener;
+	private LineChunk mChunk;
+	private long mChunkStart;
+	
+	public LineBatcher(Listener listener) {
+		mListener = listener;
+	}
+	
+	public void add(String line) {
+		add(line, null);
+	}
+	
+	public void add(String line, int[] spans) {
+		long nanos = System.nanoTime();
+		long now = nanos / 1000000;
+		
+		if (mChunk == null) {
+			mChunk = LineChunk.obtain();
+			mChunk.created = nanos;
+			mChunkStart = now;
+		}
+		
+		mChunk.lines[mChunk.count] = line;
+		mChunk.spans[mChunk.count++] = spans;
+		
+		if (mChunk.isFull() || now - mChunkStart >= FLUSH_INTERVAL) {
+			flush();
+		}
+	}
+	
+	/**
+	 * Records that n lines are missing before the next line added, so the
+	 * receiver can mark the gap.
+	 */
+	public void addGap(int n) {
+		flush();
+		mChunk = LineChunk.obtain();
+		mChunk.skipped = n;
+		mChunk.created = System.nanoTime();
+		mChunkStart = mChunk.created / 1000000;
+	}
+	
+	public void flush() {
+		if (mChunk == null) {
+			return;
+		}
+		
+		LineChunk chunk = mChunk;
+		mChunk = null;
+		mListener.onChunk(chunk);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+/**
+ * A batch of lines handed from the reader thread to the UI in one message.
+ * Chunks are pooled; the receiver calls {@link #recycle()} once it has
+ * consumed the lines.
+ */
+public class LineChunk {
+	
+	public static final int CAPACITY = 256;
+	private static final int MAX_POOL_SIZE = 8;
+	private static final Object sPoolSync = new Object();
+	private static LineChunk sPool;
+	private static int sPoolSize = 0;
+	
+	public final String[] lines = new String[CAPACITY];
+	/** Search highlights for each line as start/end pairs, or null. */
+	public final int[][] spans = new int[CAPACITY][];
+	public int count;
+	/** Lines dropped between the previous chunk and this one. */
+	public int skipped;
+	/** Set when the receiver should clear its lines before adding these. */
+	public boolean reset;
+	/** System.nanoTime() when the first line was added, 0 if never. */
+	public long created;
+	long queued;
+	private LineChunk mNext;
+	
+	private LineChunk() {
+	}
+	
+	public static LineChunk obtain() {
+		synchronized (sPoolSync) {
+			if (sPool != null) {
+				LineChunk chunk = sPool;
+				sPool = chunk.mNext;
+				chunk.mNext = null;
+				sPoolSize--;
+				return chunk;
+			}
+		}
+		
+		return new LineChunk();
+	}
+	
+	public boolean isFull() {
+		return count == CAPACITY;
+	}
+	
+	public void recycle() {
+		for (int i = 0; i < count; i++) {
+			lines[i] = null;
+			spans[i] = null;
+		}
+		
+		count = 0;
+		skipped = 0;
+		reset = false;
+		created = 0;
+		queued = 0;
+		
+		synchronized (sPoolSync) {
+			if (sPoolSize < MAX_POOL_SIZE) {
+				mNext = sPool;
+				sPool = this;
+				sPoolSize++;
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+/**
+ * Reads captured lines one at a time, oldest first, each into an entry the
+ * caller reuses, so going through them allocates nothing per line.
+ */
+public interface LineCursor {
+	
+	/**
+	 * Returns the number of lines the cursor started with; lines that went
+	 * away before the cursor reached them are skipped.
+	 */
+	int size();
+	
+	/**
+	 * Reads and parses the next line into the entry. Returns false once
+	 * there are no more.
+	 */
+	boolean next(LogEntry entry);
+	
+	/**
+	 * Goes back to the first line, for another pass.
+	 */
+	void rewind();
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+/**
+ * The filter and search that decide which lines reach the display and what
+ * is highlighted in them. Both are swapped as one immutable value, so a line
+ * is never judged by the filter of one setting and the search of another.
+ */
+public class LineSelector {
+	
+	public static final LineSelector ALL = new LineSelector(LogFilter.ALL, null);
+	
+	/** Returned by {@link #select} for lines the display should not get. */
+	public static final int[] REJECTED = new int[0];
+	
+	private final LogFilter mFilter;
+	private final SearchMatcher mSearch;
+	
+	/**
+	 * @param search the search to highlight or filter by, or null for none
+	 */
+	public LineSelector(LogFilter filter, SearchMatcher search) {
+		mFilter = filter;
+		mSearch = search;
+	}
+	
+	public LogFilter getFilter() {
+		return mFilter;
+	}
+	
+	public SearchMatcher getSearch() {
+		return mSearch;
+	}
+	
+	public LineSelector withFilter(LogFilter filter) {
+		return new LineSelector(filter, mSearch);
+	}
+	
+	public LineSelector withSearch(SearchMatcher search) {
+		return new LineSelector(mFilter, search);
+	}
+	
+	/**
+	 * Judges a parsed line. Returns {@link #REJECTED} if the display should
+	 * not get it, null if it is shown without highlights, or the highlights.
+	 * 
+	 * @param line the text that will be shown for the entry
+	 * @param from where in that text the search starts
+	 */
+	public int[] select(LogEntry entry, CharSequence line, int from) {
+		if (!mFilter.accept(entry)) {
+			return REJECTED;
+		}
+		
+		if (mSearch == null) {
+			return null;
+		}
+		
+		int[] spans = mSearch.match(line, from);
+		
+		if (spans == null && mSearch.isFiltering()) {
+			return REJECTED;
+		}
+		
+		return spans;
+	}
+	
+	/**
+	 * Where searching starts in the entry's own line: at the tag, so the
+	 * header before it never matches.
+	 */
+	public static int searchStart(LogEntry entry) {
+		return entry.hasTag() ? entry.tagStart - entry.start : 0;
+	}
+}
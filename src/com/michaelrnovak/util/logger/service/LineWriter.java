@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * Encodes lines as UTF-8 into one large buffer and writes it to a file
+ * channel or an output stream whenever it fills.
+ */
+class LineWriter {
+	
+	static final int BUFFER_SIZE = 64 * 1024;
+	
+	private final CharsetEncoder mEncoder = Charset.forName("UTF-8").newEncoder();
+	private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private FileChannel mChannel;
+	private OutputStream mStream;
+	private long mWritten;
+	
+	void open(FileChannel channel) {
+		mChannel = channel;
+		mStream = null;
+		mBuffer.clear();
+		mWritten = 0;
+	}
+	
+	void open(OutputStream stream) {
+		mChannel = null;
+		mStream = stream;
+		mBuffer.clear();
+		mWritten = 0;
+	}
+	
+	/**
+	 * Writes the line from the given offset on, followed by a newline.
+	 */
+	void write(String line, int start) throws IOException {
+		CharBuffer chars = CharBuffer.wrap(line, start, line.length());
+		mEncoder.reset();
+		
+		while (true) {
+			CoderResult result = mEncoder.encode(chars, mBuffer, true);
+			
+			if (result.isOverflow()) {
+				flush();
+			} else if (result.isError()) {
+				result.throwException();
+			} else {
+				break;
+			}
+		}
+		
+		if (!mBuffer.hasRemaining()) {
+			flush();
+		}
+		
+		mBuffer.put((byte) '\n');
+	}
+	
+	/**
+	 * Writes b[start, end), already UTF-8, followed by a newline.
+	 */
+	void write(byte[] b, int start, int end) throws IOException {
+		while (start < end) {
+			if (!mBuffer.hasRemaining()) {
+				flush();
+			}
+			
+			int n = Math.min(end - start, mBuffer.remaining());
+			mBuffer.put(b, start, n);
+			start += n;
+		}
+		
+		if (!mBuffer.hasRemaining()) {
+			flush();
+		}
+		
+		mBuffer.put((byte) '\n');
+	}
+	
+	void flush() throws IOException {
+		mBuffer.flip();
+		mWritten += mBuffer.remaining();
+		
+		if (mChannel != null) {
+			while (mBuffer.hasRemaining()) {
+				mChannel.write(mBuffer);
+			}
+		} else {
+			mStream.write(mBuffer.array(), mBuffer.arrayOffset(), mBuffer.limit());
+		}
+		
+		mBuffer.clear();
+	}
+	
+	/**
+	 * Returns the number of bytes written so far, including buffered ones.
+	 */
+	long length() {
+		return mWritten + mBuffer.position();
+	}
+	
+	void release() {
+		mChannel = null;
+		mStream = null;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * One parsed log record. The fields are offsets into {@link #buffer}, which
+ * belongs to the parser and is only valid until the next entry is read, so
+ * nothing here allocates unless a String is explicitly asked for.
+ */
+public class LogEntry {
+	
+	public static final int FORMAT_RAW = 0;
+	public static final int FORMAT_BRIEF = 1;
+	public static final int FORMAT_TIME = 2;
+	public static final int FORMAT_THREADTIME = 3;
+	public static final int FORMAT_LONG = 4;
+	
+	public byte[] buffer;
+	public int start;
+	public int end;
+	public int format;
+	public char level;
+	public int tagStart;
+	public int tagEnd;
+	
+	/** Id from the reader's {@link TagDictionary}, or -1 if not interned. */
+	public int tagId;
+	public int pid;
+	public int tid;
+	public int msgStart;
+	public int msgEnd;
+	public int sourceStart;
+	public int sourceEnd;
+	
+	/** Milliseconds since the start of the year, or -1 if the format has no time. */
+	public long timestamp;
+	
+	public void reset(byte[] buf, int s, int e) {
+		buffer = buf;
+		start = s;
+		end = e;
+		format = FORMAT_RAW;
+		level = 0;
+		tagStart = s;
+		tagEnd = s;
+		tagId = -1;
+		pid = -1;
+		tid = -1;
+		msgStart = s;
+		msgEnd = e;
+		sourceStart = s;
+		sourceEnd = s;
+		timestamp = -1;
+	}
+	
+	public boolean hasTag() {
+		return tagEnd > tagStart;
+	}
+	
+	public String getLine() {
+		return decode(buffer, start, end - start);
+	}
+	
+	public String getTag() {
+		return decode(buffer, tagStart, tagEnd - tagStart);
+	}
+	
+	/**
+	 * Compares the tag against the given name ignoring case, without
+	 * building a String for the tag.
+	 */
+	public boolean tagEquals(String tag) {
+		int len = tagEnd - tagStart;
+		
+		if (len != tag.length()) {
+			return len > tag.length() && getTag().equalsIgnoreCase(tag);
+		}
+		
+		for (int i = 0; i < len; i++) {
+			int b = buffer[tagStart + i] & 0xff;
+			char c = tag.charAt(i);
+			
+			if (b >= 0x80 || c >= 0x80) {
+				return getTag().equalsIgnoreCase(tag);
+			}
+			
+			if (b != c && toLower(b) != toLower(c)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	static int toLower(int c) {
+		return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+	}
+	
+	static String decode(byte[] buf, int offset, int length) {
+		try {
+			return new String(buf, offset, length, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return new String(buf, offset, length);
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes captured lines to a file. Lines are read one at a time from a
+ * {@link LineCursor} into a reused entry and their bytes copied straight
+ * into one large buffer, which is written out whenever it fills, so there
+ * is no per-line String and no small write.
+ * 
+ * The file name picks the format: ".gz" compresses on the fly with gzip,
+ * ".zip" writes one entry per captured buffer, ".lidx" writes the indexed
+ * binary format of {@link IndexedLogWriter}, anything else is plain text
+ * written through a FileChannel.
+ */
+public class LogExporter {
+	
+	private static final int PROGRESS_INTERVAL = 1024;
+	
+	public interface ProgressListener {
+		void onProgress(int done, int total);
+	}
+	
+	private final LineWriter mWriter = new LineWriter();
+	private final LogEntry mEntry = new LogEntry();
+	private ProgressListener mListener;
+	private int mDone;
+	private int mTotal;
+	
+	/**
+	 * Writes every line the filter accepts and returns the number of lines
+	 * written.
+	 */
+	public int export(LineCursor lines, LogFilter filter, File file, ProgressListener listener) throws IOException {
+		String name = file.getName().toLowerCase();
+		FileOutputStream out = new FileOutputStream(file);
+		int written = 0;
+		
+		mListener = listener;
+		mDone = 0;
+		
+		try {
+			if (name.endsWith(".gz")) {
+				GZIPOutputStream gzip = new GZIPOutputStream(out, LineWriter.BUFFER_SIZE);
+				mWriter.open(gzip);
+				mTotal = lines.size();
+				written = writeLines(lines, filter, null);
+				mWriter.flush();
+				gzip.finish();
+			} else if (name.endsWith(".zip")) {
+				ZipOutputStream zip = new ZipOutputStream(out);
+				ArrayList<String> sources = sourcesOf(lines);
+				String base = file.getName().substring(0, name.length() - 4);
+				
+				mWriter.open(zip);
+				mTotal = lines.size() * sources.size();
+				
+				for (int i = 0; i < sources.size(); i++) {
+					String source = sources.get(i);
+					
+					zip.putNextEntry(new ZipEntry(((source.length() == 0) ? base : source) + ".log"));
+					lines.rewind();
+					written += writeLines(lines, filter, IndexedLogWriter.utf8(source));
+					mWriter.flush();
+					zip.closeEntry();
+				}
+				
+				zip.finish();
+			} else if (name.endsWith(IndexedLogSource.SUFFIX)) {
+				mTotal = lines.size();
+				written = writeIndexed(lines, filter, new IndexedLogWriter(out.getChannel()));
+			} else {
+				mWriter.open(out.getChannel());
+				mTotal = lines.size();
+				written = writeLines(lines, filter, null);
+				mWriter.flush();
+			}
+		} finally {
+			mWriter.release();
+			out.close();
+		}
+		
+		if (listener != null) {
+			listener.onProgress(mTotal, mTotal);
+		}
+		
+		mListener = null;
+		return written;
+	}
+	
+	/**
+	 * Writes the matching lines. With a buffer name only lines from that
+	 * buffer are written, with their "[buffer] " prefix stripped; an empty
+	 * name stands for lines without a prefix.
+	 */
+	private int writeLines(LineCursor lines, LogFilter filter, byte[] source) throws IOException {
+		boolean filtering = !filter.acceptsAll();
+		LogEntry entry = mEntry;
+		int written = 0;
+		
+		for (; lines.next(entry); mDone++) {
+			if (mListener != null && mDone % PROGRESS_INTERVAL == 0) {
+				mListener.onProgress(mDone, mTotal);
+			}
+			
+			if (filtering && !filter.accept(entry)) {
+				continue;
+			}
+			
+			int start = entry.start;
+			
+			if (source != null) {
+				if (!isSource(entry, source)) {
+					continue;
+				}
+				
+				if (source.length > 0) {
+					start = entry.sourceEnd + 2;
+				}
+			}
+			
+			mWriter.write(entry.buffer, start, entry.end);
+			written++;
+		}
+		
+		return written;
+	}
+	
+	private int writeIndexed(LineCursor lines, LogFilter filter, IndexedLogWriter writer) throws IOException {
+		LogEntry entry = mEntry;
+		
+		for (; lines.next(entry); mDone++) {
+			if (mListener != null && mDone % PROGRESS_INTERVAL == 0) {
+				mListener.onProgress(mDone, mTotal);
+			}
+			
+			if (filter.accept(entry)) {
+				writer.append(entry);
+			}
+		}
+		
+		writer.finish();
+		return writer.getCount();
+	}
+	
+	/**
+	 * Returns the distinct buffer names in capture order, with "" standing
+	 * for lines that have none, and leaves the cursor at the end.
+	 */
+	private ArrayList<String> sourcesOf(LineCursor lines) {
+		ArrayList<String> sources = new ArrayList<String>();
+		ArrayList<byte[]> names = new ArrayList<byte[]>();
+		LogEntry entry = mEntry;
+		
+		while (lines.next(entry)) {
+			boolean known = false;
+			
+			for (int j = 0; j < names.size() && !known; j++) {
+				known = isSource(entry, names.get(j));
+			}
+			
+			if (!known) {
+				String source = LogEntry.decode(entry.buffer, entry.sourceStart, entry.sourceEnd - entry.sourceStart);
+				sources.add(source);
+				names.add(IndexedLogWriter.utf8(source));
+			}
+		}
+		
+		if (sources.isEmpty()) {
+			sources.add("");
+		}
+		
+		return sources;
+	}
+	
+	// compares the entry's buffer name, empty if it has none, without decoding it
+	private static boolean isSource(LogEntry entry, byte[] name) {
+		if (entry.sourceEnd - entry.sourceStart != name.length) {
+			return false;
+		}
+		
+		for (int i = 0; i < name.length; i++) {
+			if (entry.buffer[entry.sourceStart + i] != name[i]) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+}
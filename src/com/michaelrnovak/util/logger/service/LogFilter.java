@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable level and tag filter applied on the reader thread. A level of 0
+ * accepts every level; an empty tag list accepts every tag. Tags are matched
+ * ignoring case, by id when the filter and the entry share a
+ * {@link TagDictionary}. A filter pushed down to logcat may also carry a
+ * floor, a level from which every line is let through whatever its tag.
+ */
+public class LogFilter {
+	
+	public static final LogFilter ALL = new LogFilter((char) 0, null);
+	
+	private static final String PRIORITIES = "VDIWEF";
+	
+	private final char mLevel;
+	private final String[] mTags;
+	private final int[] mTagIds;
+	private final boolean mExactTags;
+	private final int mPid;
+	private final char mFloor;
+	
+	public LogFilter(char level, String tags) {
+		this(level, tags, -1, null);
+	}
+	
+	/**
+	 * @param level the exact level to show, or 0 for all levels
+	 * @param tags comma separated tag names, or null/empty for all tags
+	 * @param pid the process to show, or -1 for all processes
+	 * @param dictionary the dictionary entries are interned in, or null to
+	 *        compare tag bytes
+	 */
+	public LogFilter(char level, String tags, int pid, TagDictionary dictionary) {
+		mLevel = level;
+		mPid = pid;
+		mFloor = 0;
+		
+		ArrayList<String> list = new ArrayList<String>();
+		
+		if (tags != null) {
+			String[] parts = tags.split(",");
+			
+			for (int i = 0; i < parts.length; i++) {
+				String tag = parts[i].trim();
+				
+				if (tag.length() > 0) {
+					list.add(tag);
+				}
+			}
+		}
+		
+		mTags = list.toArray(new String[list.size()]);
+		
+		// logcat matches tags by case, so only tags already seen spelled just so are safe to hand it
+		boolean exact = dictionary != null;
+		
+		for (int i = 0; i < mTags.length && exact; i++) {
+			int id = dictionary.find(mTags[i]);
+			exact = id >= 0 && dictionary.getName(id).equals(mTags[i]);
+		}
+		
+		mExactTags = exact;
+		
+		if (dictionary != null) {
+			mTagIds = new int[mTags.length];
+			
+			for (int i = 0; i < mTags.length; i++) {
+				mTagIds[i] = dictionary.intern(mTags[i]);
+			}
+		} else {
+			mTagIds = null;
+		}
+	}
+	
+	private LogFilter(LogFilter filter, char floor) {
+		mLevel = filter.mLevel;
+		mPid = filter.mPid;
+		mTags = filter.mTags;
+		mTagIds = filter.mTagIds;
+		mExactTags = filter.mExactTags;
+		mFloor = floor;
+	}
+	
+	/**
+	 * Returns a filter that also accepts every line at the given level or
+	 * above, from any tag and process, or this filter if the level is 0.
+	 */
+	public LogFilter withFloor(char level) {
+		return (level == 0) ? this : new LogFilter(this, level);
+	}
+	
+	public boolean accept(LogEntry entry) {
+		if (rank(entry.level) >= floorRank()) {
+			return true;
+		}
+		
+		if (mLevel != 0 && entry.level != mLevel) {
+			return false;
+		}
+		
+		if (mPid >= 0 && entry.pid != mPid) {
+			return false;
+		}
+		
+		if (mTags.length == 0) {
+			return true;
+		}
+		
+		if (mTagIds != null && entry.tagId >= 0) {
+			for (int i = 0; i < mTagIds.length; i++) {
+				if (entry.tagId == mTagIds[i]) {
+					return true;
+				}
+			}
+			
+			return false;
+		}
+		
+		for (int i = 0; i < mTags.length; i++) {
+			if (entry.tagEquals(mTags[i])) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Returns true if the other filter was built from the same level, tags
+	 * and pid, whatever dictionary either was built with.
+	 */
+	public boolean isSameAs(LogFilter other) {
+		return mLevel == other.mLevel && mPid == other.mPid && mFloor == other.mFloor
+				&& Arrays.equals(mTags, other.mTags);
+	}
+	
+	public boolean acceptsAll() {
+		return mLevel == 0 && mTags.length == 0 && mPid < 0;
+	}
+	
+	/**
+	 * Appends logcat arguments that let through at least what this filter
+	 * accepts. logcat only knows minimum priorities, so the exact level
+	 * match is still done by {@link #accept(LogEntry)}; tags that logcat
+	 * cannot express, or that have not been seen in the log with exactly
+	 * the filter's spelling, leave tag filtering to the reader as well,
+	 * since logcat compares tags case-sensitively.
+	 */
+	public void appendLogcatArgs(List<String> args, int sdk) {
+		if (nativePid(sdk)) {
+			args.add("--pid=" + mPid);
+		}
+		
+		// a tag spec overrides the default, so the listed tags must not go above the floor either
+		char priority = PRIORITIES.charAt(Math.min(rank(mLevel), floorRank()));
+		
+		if (!nativeTags()) {
+			if (mLevel != 0) {
+				args.add("*:" + priority);
+			}
+			
+			return;
+		}
+		
+		for (int i = 0; i < mTags.length; i++) {
+			args.add(mTags[i] + ":" + priority);
+		}
+		
+		args.add("*:" + ((mFloor != 0) ? nativePriority(mFloor) : 'S'));
+	}
+	
+	/**
+	 * Returns true if a logcat process started with this filter's arguments
+	 * produces every line the other filter accepts.
+	 */
+	public boolean covers(LogFilter other, int sdk) {
+		if (nativePid(sdk) && (mPid != other.mPid || other.mFloor != 0)) {
+			return false;
+		}
+		
+		int tagged = Math.min(rank(mLevel), floorRank());
+		int untagged = nativeTags() ? floorRank() : tagged;
+		
+		if (other.mFloor != 0 && untagged > other.floorRank()) {
+			return false;
+		}
+		
+		if (untagged <= rank(other.mLevel)) {
+			return true;
+		}
+		
+		if (tagged > rank(other.mLevel) || !nativeTags() || !other.nativeTags()) {
+			return false;
+		}
+		
+		for (int i = 0; i < other.mTags.length; i++) {
+			boolean found = false;
+			
+			for (int j = 0; j < mTags.length && !found; j++) {
+				found = mTags[j].equals(other.mTags[i]);
+			}
+			
+			if (!found) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	// a floor lets through lines from every process
+	private boolean nativePid(int sdk) {
+		return mPid >= 0 && sdk >= 24 && mFloor == 0;
+	}
+	
+	private boolean nativeTags() {
+		if (mTags.length == 0 || !mExactTags) {
+			return false;
+		}
+		
+		for (int i = 0; i < mTags.length; i++) {
+			if (mTags[i].indexOf(':') >= 0 || mTags[i].indexOf('*') >= 0) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	// past F when there is no floor, as for *:S
+	private int floorRank() {
+		return (mFloor != 0) ? rank(mFloor) : PRIORITIES.length();
+	}
+	
+	// 0 for V, and for a level of 0, through 5 for F
+	private static int rank(char level) {
+		return PRIORITIES.indexOf(nativePriority(level));
+	}
+	
+	private static char nativePriority(char level) {
+		if (level == 'A') {
+			return 'F';
+		}
+		
+		return (PRIORITIES.indexOf(level) >= 0) ? level : 'V';
+	}
+	
+	public char getLevel() {
+		return mLevel;
+	}
+	
+	/**
+	 * Returns the lowest level this filter lets through, or 0 if it lets
+	 * through every level.
+	 */
+	public char getMinimumLevel() {
+		if (mLevel == 0) {
+			return 0;
+		}
+		
+		return PRIORITIES.charAt(Math.min(rank(mLevel), floorRank()));
+	}
+}
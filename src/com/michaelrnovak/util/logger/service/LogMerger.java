@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * K-way merge of several timestamped line streams, one per logcat buffer.
+ * Each source is filled by its own reader thread; the consumer takes lines
+ * in timestamp order. Since sources are live, a line is held back until
+ * every source has something queued to compare against, or until it has
+ * waited {@link #MERGE_WINDOW} milliseconds, after which an idle source is
+ * assumed to have nothing older.
+ */
+public class LogMerger {
+	
+	public static final long MERGE_WINDOW = 100;
+	private static final int QUEUE_SIZE = 1024;
+	
+	public static class Line {
+		public final long timestamp;
+		public final String text;
+		public final String source;
+		public final boolean accepted;
+		public final int[] spans;
+		
+		/** The incident trigger the line fired, or null. */
+		public final String trigger;
+		final long arrival;
+		
+		public Line(long timestamp, String text, String source, boolean accepted) {
+			this(timestamp, text, source, accepted, null);
+		}
+		
+		public Line(long timestamp, String text, String source, boolean accepted, int[] spans) {
+			this(timestamp, text, source, accepted, spans, null);
+		}
+		
+		public Line(long timestamp, String text, String source, boolean accepted, int[] spans, String trigger) {
+			this.timestamp = timestamp;
+			this.text = text;
+			this.source = source;
+			this.accepted = accepted;
+			this.spans = spans;
+			this.trigger = trigger;
+			this.arrival = now();
+		}
+	}
+	
+	public class Source {
+		private final BlockingQueue<Line> mQueue = new ArrayBlockingQueue<Line>(QUEUE_SIZE);
+		private volatile boolean mFinished = false;
+		
+		/**
+		 * Queues a line, blocking while the merge is behind so a busy
+		 * buffer cannot run away from the others.
+		 */
+		public void put(Line line) throws InterruptedException {
+			mQueue.put(line);
+			
+			signal();
+		}
+		
+		public void finish() {
+			mFinished = true;
+			
+			signal();
+		}
+	}
+	
+	private final Object mSignal = new Object();
+	private int mSignals = 0;
+	private final Source[] mSources;
+	private final Line[] mHeads;
+	
+	public LogMerger(int count) {
+		mSources = new Source[count];
+		mHeads = new Line[count];
+		
+		for (int i = 0; i < count; i++) {
+			mSources[i] = new Source();
+		}
+	}
+	
+	public Source getSource(int index) {
+		return mSources[index];
+	}
+	
+	/**
+	 * Returns the next line in timestamp order, waiting at most the given
+	 * time for one to become available. Returns null on timeout or once
+	 * every source has finished and been drained.
+	 */
+	public Line poll(long timeout) throws InterruptedException {
+		long deadline = now() + timeout;
+		
+		while (true) {
+			// a put or finish after this point is seen by the wait below, so no signal is lost
+			int signals;
+			
+			synchronized (mSignal) {
+				signals = mSignals;
+			}
+			
+			int best = -1;
+			boolean missing = false;
+			
+			for (int i = 0; i < mSources.length; i++) {
+				if (mHeads[i] == null) {
+					mHeads[i] = mSources[i].mQueue.poll();
+				}
+				
+				if (mHeads[i] == null) {
+					missing |= !mSources[i].mFinished;
+				} else if (best < 0 || mHeads[i].timestamp < mHeads[best].timestamp) {
+					best = i;
+				}
+			}
+			
+			long now = now();
+			long wait = deadline - now;
+			
+			if (best >= 0) {
+				long held = now - mHeads[best].arrival;
+				
+				if (!missing || held >= MERGE_WINDOW) {
+					Line line = mHeads[best];
+					mHeads[best] = null;
+					return line;
+				}
+				
+				wait = Math.min(wait, MERGE_WINDOW - held);
+			} else if (!missing) {
+				return null;
+			}
+			
+			if (wait <= 0) {
+				return null;
+			}
+			
+			synchronized (mSignal) {
+				if (mSignals == signals) {
+					mSignal.wait(wait);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns true when no line is queued anywhere, so the consumer can
+	 * flush what it has batched.
+	 */
+	public boolean isEmpty() {
+		for (int i = 0; i < mSources.length; i++) {
+			if (mHeads[i] != null || !mSources[i].mQueue.isEmpty()) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	public boolean isFinished() {
+		for (int i = 0; i < mSources.length; i++) {
+			if (mHeads[i] != null || !mSources[i].mFinished || !mSources[i].mQueue.isEmpty()) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	private void signal() {
+		synchronized (mSignal) {
+			mSignals++;
+			mSignal.notify();
+		}
+	}
+	
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+}
@@ -19,39 +19,112 @@ package com.michaelrnovak.util.logger.service;
 
 import android.app.Service;
 import android.content.Intent;
+import android.os.Build;
 import android.os.IBinder;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Vector;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LogProcessor extends Service {
 	
 	private static Handler mHandler;
 	private String mFile;
 	private String mBuffer = "main";
-	private Vector<String> mScrollback;
-	private int mLines;
+	private LineBatcher mBatcher;
+	private RepeatCollapser mCollapser;
+	private boolean mCollapsing = true;
+	private final LogEntry mRepeatEntry = new LogEntry();
+	private final PipelineStats mStats = new PipelineStats();
+	private final ChunkQueue mQueue = new ChunkQueue(MAX_QUEUED_CHUNKS, mStats);
+	private final TagDictionary mTagDictionary = new TagDictionary();
+	private final PackedScrollback mScrollback = new PackedScrollback(SCROLLBACK_LINES, SCROLLBACK_BYTES, mTagDictionary);
+	private volatile LineSelector mSelector = LineSelector.ALL;
+	private volatile TriggerRules mTriggers = new TriggerRules(TriggerRules.DEFAULTS, mTagDictionary);
+	private IncidentRecorder mIncidents;
+	private LogFilter mNativeFilter = LogFilter.ALL;
+	private final Object mDeliveryLock = new Object();
 	private int mType;
 	private String mFilterTag;
-	private volatile boolean threadKill = false;
-	private volatile boolean mStatus = false;
-	public int MAX_LINES = 250;
+	private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+	private final ScheduledExecutorService mTimer = Executors.newSingleThreadScheduledExecutor();
+	private boolean mRepeatFlushScheduled = false;
+	private final AtomicInteger mState = new AtomicInteger(STATE_IDLE);
+	private Future<?> mReader;
+	private volatile int mGeneration = 0;
+	private volatile int mActiveGeneration = 0;
+	private volatile LogSource mLogSource;
+	private volatile SegmentWriter mSegments;
+	private volatile boolean mBound = false;
+	private final Handler mIdleHandler = new Handler();
+	private volatile long mIdleTimeout = IDLE_TIMEOUT;
+	private volatile boolean mPaused = false;
+	private boolean mDisplayStale = false;
+	private long mAdded = 0;
+	private long mPausedAt = 0;
+	private int mPending = 0;
+	private int mPendingReported = 0;
+	private long mPendingReportTime = 0;
+	public static final int TYPE_LOGCAT = 0;
+	public static final int TYPE_DMESG = 1;
+	public static final int TYPE_REPLAY = 2;
+	public static final int TYPE_SYNTHETIC = 3;
+	public static final int STATE_IDLE = 0;
+	public static final int STATE_STARTING = 1;
+	public static final int STATE_RUNNING = 2;
+	public static final int STATE_STOPPING = 3;
+	private static final long STOP_TIMEOUT = 2000;
+	private static final int MAX_QUEUED_CHUNKS = 32;
+	private static final int SCROLLBACK_LINES = 128 * 1024;
+	private static final int SCROLLBACK_BYTES = 8 * 1024 * 1024;
+	private static final int REDELIVER_LINES = MAX_QUEUED_CHUNKS * LineChunk.CAPACITY / 2;
+	private static final long BLOCK_TIMEOUT = 500;
+	private static final long PENDING_INTERVAL = 250;
+	private static final long REPEAT_QUIET = 250;
+	private static final long IDLE_TIMEOUT = 60 * 1000;
 	public static final int MSG_READ_FAIL = 1;
 	public static final int MSG_LOG_FAIL = 2;
 	public static final int MSG_NEW_LINE = 3;
 	public static final int MSG_RESET_LOG = 4;
 	public static final int MSG_LOG_SAVE = 5;
+	public static final int MSG_NEW_LINES = 6;
+	public static final int MSG_LOG_PROGRESS = 7;
+	public static final int MSG_PENDING_LINES = 8;
+	public static final int MSG_INCIDENT = 9;
+	public static final String ATTACHMENT_FILE = "tmp.log.gz";
+	public static final String CAPTURE_DIR = "/sdcard/logger";
+	private static final long SEGMENT_SIZE = 1024 * 1024;
+	private static final long SEGMENT_AGE = 15 * 60 * 1000;
+	private static final long CAPTURE_QUOTA = 16 * 1024 * 1024;
+	private static final float REPLAY_SPEED_UP = 10;
+	private static final long REPLAY_BURST_EVERY = 5000;
+	private static final int REPLAY_BURST_LINES = 2000;
+	private static final int SYNTHETIC_RATE = 10000;
+	private static final int PRE_ROLL_LINES = 4000;
+	private static final long PRE_ROLL = 10 * 1000;
+	private static final long POST_ROLL = 5 * 1000;
+	private static final int SDK = sdkVersion();
 	
 	@Override
 	public void onCreate() {
 		super.onCreate();
+		mIncidents = new IncidentRecorder(new File(CAPTURE_DIR), PRE_ROLL_LINES, PRE_ROLL, POST_ROLL, mIncidentListener);
 	}
 	
 	@Override
@@ -59,148 +132,1146 @@ public class LogProcessor extends Service {
 		super.onStart(intent, startId);
 		Log.i("Logger", "Logger Service has hit the onStart method.");
 	}
-
-	Runnable worker = new Runnable() {
+	
+	@Override
+	public void onDestroy() {
+		mIdleHandler.removeCallbacks(mIdleStop);
+		setBackgroundCapture(false);
+		stopReader(false);
+		mExecutor.shutdown();
+		mTimer.shutdown();
+		mIncidents.shutdown();
+		super.onDestroy();
+	}
+	
+	/**
+	 * Runs one capture on the reader executor. A worker whose generation
+	 * has been superseded treats that as a kill request, so a stop never has
+	 * to wait for it before the state can move on.
+	 */
+	private class Worker implements Runnable {
+		private final int mWorkerGeneration;
+		
+		Worker(int generation) {
+			mWorkerGeneration = generation;
+		}
+		
 		public void run() {
+			mActiveGeneration = mWorkerGeneration;
+			
+			if (killRequested()) {
+				return;
+			}
+			
+			mState.compareAndSet(STATE_STARTING, STATE_RUNNING);
 			runLog();
-			mStatus = true;
-			Log.d("Logger", "status... " + mStatus);
+			
+			if (mGeneration == mWorkerGeneration) {
+				mState.compareAndSet(STATE_RUNNING, STATE_IDLE);
+				mState.compareAndSet(STATE_STOPPING, STATE_IDLE);
+			}
+		}
+	}
+	
+	/**
+	 * Starts a fresh capture, first stopping and waiting for the previous
+	 * one, so there is never more than one reader.
+	 */
+	private synchronized void startReader() {
+		stopReader(true);
+		
+		synchronized (mDeliveryLock) {
+			mScrollback.clear();
+			mBatcher = new LineBatcher(mChunkListener);
+			mCollapser = new RepeatCollapser(mRepeatListener);
+			mAdded = 0;
+			mPausedAt = 0;
+			mDisplayStale = mPaused;
+		}
+		
+		mState.set(STATE_STARTING);
+		mReader = mExecutor.submit(new Worker(++mGeneration));
+	}
+	
+	/**
+	 * Asks the current reader to stop and destroys its logcat process so a
+	 * blocked read returns at once. When waiting, returns once the reader
+	 * has exited or the stop timeout has passed.
+	 */
+	private synchronized void stopReader(boolean wait) {
+		if (mReader == null) {
 			return;
 		}
-	};
+		
+		mGeneration++;
+		mState.set(STATE_STOPPING);
+		
+		LogSource source = mLogSource;
+		
+		if (source != null) {
+			source.close();
+		}
+		
+		if (!wait) {
+			return;
+		}
+		
+		try {
+			mReader.get(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			Log.w("Logger", "Reader did not stop in time");
+			mReader.cancel(true);
+		} catch (ExecutionException e) {
+			Log.e("Logger", "Reader failed: " + e.getCause());
+		} catch (CancellationException e) {
+			Log.w("Logger", "Reader was cancelled");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		mReader = null;
+		mState.set(STATE_IDLE);
+	}
 	
 	private void runLog() {
-		Process process = null;
+		if (mType == TYPE_LOGCAT && mBuffer.indexOf(',') >= 0) {
+			runMerged(mBuffer.split(","));
+			return;
+		}
+		
+		LogSource source;
+		InputStream in;
 		
 		try {
-			
-			if (mType == 0) {
-				process = Runtime.getRuntime().exec("/system/bin/logcat -b " + mBuffer);
-			} else if (mType == 1) {
-				process = Runtime.getRuntime().exec("dmesg -s 1000000");
-			}
-			
+			source = createSource();
+			in = source.open();
 		} catch (IOException e) {
+			Log.e("Logger", "Could not open the log: " + e.toString());
 			communicate(MSG_LOG_FAIL);
+			return;
+		}
+		
+		mLogSource = source;
+		
+		if (killRequested()) {
+			source.close();
 		}
 		
-		BufferedReader reader = null;
+		LogcatParser parser = null;
+		boolean live = isLive();
 		
 		try {
-			reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			parser = new LogcatParser(in);
+			parser.setTagDictionary(mTagDictionary);
 			
-			String line;
+			LogEntry entry = new LogEntry();
 			
 			while (!killRequested()) {
-				line = reader.readLine();
+				// only time lines already buffered, so the wait for input is not counted
+				boolean timed = parser.ready() && mStats.shouldSample();
+				long start = timed ? System.nanoTime() : 0;
 				
-				logLine(line);
+				if (!parser.next(entry)) {
+					break;
+				}
 				
-				if (mLines == MAX_LINES) {
-					mScrollback.removeElementAt(0);
+				if (timed) {
+					long parsed = System.nanoTime();
+					mStats.record(PipelineStats.STAGE_PARSE, parsed - start);
+					start = parsed;
 				}
 				
-				mScrollback.add(line);
-				mLines++;
+				mQueue.awaitSpace(BLOCK_TIMEOUT);
+				
+				synchronized (mDeliveryLock) {
+					mStats.lineRead(entry.end - entry.start + 1);
+					
+					if (live) {
+						capture(entry);
+						mIncidents.add(entry, mTriggers.match(entry));
+					}
+					
+					if (!mCollapsing || !mCollapser.add(entry)) {
+						mScrollback.add(entry);
+						mAdded++;
+						logEntry(entry);
+					}
+					
+					if (timed) {
+						mStats.record(PipelineStats.STAGE_FILTER, System.nanoTime() - start);
+					}
+					
+					if (!parser.ready()) {
+						scheduleRepeatFlush();
+						mBatcher.flush();
+						flushCapture();
+						reportPending();
+					}
+				}
+			}
+			
+			synchronized (mDeliveryLock) {
+				flushRepeats();
+				mBatcher.flush();
 			}
 			
 			Log.i("Logger", "Prepping thread for termination");
-			reader.close();
-			process.destroy();
-			process = null;
-			reader = null;
-			mScrollback.removeAllElements();
-			mScrollback = null;
-			mLines = 0;
+			in.close();
+			parser = null;
+			mScrollback.clear();
 		} catch (IOException e) {
-			communicate(MSG_READ_FAIL);
+			if (!killRequested()) {
+				communicate(MSG_READ_FAIL);
+			}
+		} catch (InterruptedException e) {
+			Log.i("Logger", "Reader interrupted");
 		}
 		
-		Log.d("Logger", "Exiting thread...");
+		source.close();
+		mLogSource = null;
 		return;
 	}
 	
-	private synchronized void requestKill() {
-		threadKill = true;
+	private LogSource createSource() throws IOException {
+		mNativeFilter = LogFilter.ALL;
+		
+		switch (mType) {
+		case TYPE_DMESG:
+			return new KernelLogSource();
+		case TYPE_REPLAY:
+			SegmentWriter segments = mSegments;
+			File capture = latestCapture((segments != null) ? segments.getFile() : null);
+			
+			if (capture == null) {
+				throw new FileNotFoundException("Nothing to replay in " + CAPTURE_DIR);
+			}
+			
+			// an indexed export is read back through its index, skipping levels the view hides
+			if (capture.getName().endsWith(IndexedLogSource.SUFFIX)) {
+				mNativeFilter = new LogFilter(pushedDownFilter().getMinimumLevel(), null);
+				return new IndexedLogSource(capture, mNativeFilter.getLevel());
+			}
+			
+			ReplayLogSource replay = new ReplayLogSource(capture, REPLAY_SPEED_UP, true);
+			replay.setBurst(REPLAY_BURST_EVERY, REPLAY_BURST_LINES);
+			return replay;
+		case TYPE_SYNTHETIC:
+			return new SyntheticLogSource(SYNTHETIC_RATE, 0, System.currentTimeMillis());
+		default:
+			return new ProcessLogSource(logcatCommand(mBuffer, false));
+		}
+	}
+	
+	/**
+	 * Returns the newest capture segment or indexed export, leaving out the
+	 * segment background capture is still writing.
+	 */
+	private static File latestCapture(File active) {
+		File[] files = new File(CAPTURE_DIR).listFiles();
+		File latest = null;
+		
+		if (files == null) {
+			return null;
+		}
+		
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			
+			boolean segment = name.startsWith(SegmentWriter.PREFIX) && name.endsWith(SegmentWriter.SUFFIX);
+			
+			if ((segment || name.endsWith(IndexedLogSource.SUFFIX)) && !files[i].equals(active)
+					&& (latest == null || files[i].lastModified() > latest.lastModified())) {
+				latest = files[i];
+			}
+		}
+		
+		return latest;
+	}
+	
+	/**
+	 * Captures several buffers at once, each through its own logcat process
+	 * and reader thread, and delivers them as one stream merged by timestamp.
+	 * Every line is prefixed with the name of the buffer it came from.
+	 */
+	private void runMerged(String[] buffers) {
+		LogMerger merger = new LogMerger(buffers.length);
+		BufferReader[] readers = new BufferReader[buffers.length];
+		
+		try {
+			for (int i = 0; i < buffers.length; i++) {
+				readers[i] = new BufferReader(buffers[i].trim(), merger.getSource(i));
+				readers[i].start();
+			}
+			
+			while (!killRequested() && !merger.isFinished()) {
+				LogMerger.Line line = merger.poll(LogMerger.MERGE_WINDOW);
+				mQueue.awaitSpace(BLOCK_TIMEOUT);
+				
+				synchronized (mDeliveryLock) {
+					if (line != null) {
+						mStats.lineRead(line.text.length() + 1);
+						capture(line.text);
+						mIncidents.add(line.text, line.trigger);
+						
+						if (!collapsed(line.text)) {
+							mScrollback.add(line.text);
+							mAdded++;
+							
+							if (line.accepted) {
+								deliver(line.text, line.spans);
+							}
+						}
+					}
+					
+					if (merger.isEmpty()) {
+						scheduleRepeatFlush();
+						mBatcher.flush();
+						flushCapture();
+						reportPending();
+					}
+				}
+			}
+		} catch (IOException e) {
+			communicate(MSG_LOG_FAIL);
+		} catch (InterruptedException e) {
+			Log.i("Logger", "Merge interrupted");
+		}
+		
+		Log.i("Logger", "Prepping merged readers for termination");
+		
+		for (int i = 0; i < readers.length; i++) {
+			if (readers[i] != null) {
+				readers[i].close();
+			}
+		}
+		
+		synchronized (mDeliveryLock) {
+			flushRepeats();
+			mBatcher.flush();
+		}
+		
+		mScrollback.clear();
+	}
+	
+	private class BufferReader extends Thread {
+		private final String mName;
+		private final String mPrefix;
+		private final LogMerger.Source mSource;
+		private final LogSource mLog;
+		private final InputStream mIn;
+		
+		BufferReader(String name, LogMerger.Source source) throws IOException {
+			mName = name;
+			mPrefix = "[" + name + "] ";
+			mSource = source;
+			mLog = new ProcessLogSource(logcatCommand(name, true));
+			mIn = mLog.open();
+		}
+		
+		public void run() {
+			LogcatParser parser = new LogcatParser(mIn);
+			parser.setTagDictionary(mTagDictionary);
+			LogEntry entry = new LogEntry();
+			
+			try {
+				while (!killRequested()) {
+					boolean timed = parser.ready() && mStats.shouldSample();
+					long start = timed ? System.nanoTime() : 0;
+					
+					if (!parser.next(entry)) {
+						break;
+					}
+					
+					int from = (entry.format == LogEntry.FORMAT_TIME) ? entry.tagStart - 2 : entry.start;
+					String text = mPrefix + LogEntry.decode(entry.buffer, from, entry.end - from);
+					
+					if (timed) {
+						long parsed = System.nanoTime();
+						mStats.record(PipelineStats.STAGE_PARSE, parsed - start);
+						start = parsed;
+					}
+					
+					int[] spans = mSelector.select(entry, text, mPrefix.length() + (entry.hasTag() ? entry.tagStart - from : 0));
+					boolean accepted = spans != LineSelector.REJECTED;
+					
+					if (timed) {
+						mStats.record(PipelineStats.STAGE_FILTER, System.nanoTime() - start);
+					}
+					
+					String trigger = mTriggers.match(entry);
+					mSource.put(new LogMerger.Line(entry.timestamp, text, mName, accepted, accepted ? spans : null, trigger));
+				}
+			} catch (IOException e) {
+				Log.i("Logger", "Reader for " + mName + " closed");
+			} catch (InterruptedException e) {
+				Log.i("Logger", "Reader for " + mName + " interrupted");
+			}
+			
+			mSource.finish();
+		}
+		
+		void close() {
+			mLog.close();
+			interrupt();
+			
+			try {
+				join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Builds the logcat command line, pushing the current filter down to
+	 * logcat so rejected lines never reach this process. On platforms with
+	 * -T the initial dump is limited to what the scrollback can hold. Timed
+	 * output is used when lines have to be merged with other buffers.
+	 */
+	private String[] logcatCommand(String buffer, boolean timed) {
+		ArrayList<String> cmd = new ArrayList<String>();
+		cmd.add("/system/bin/logcat");
+		cmd.add("-b");
+		cmd.add(buffer);
+		
+		if (timed) {
+			cmd.add("-v");
+			cmd.add("time");
+		}
+		
+		// start with as much history as the scrollback holds
+		if (SDK >= 21) {
+			cmd.add("-T");
+			cmd.add(String.valueOf(mScrollback.capacity()));
+		}
+		
+		mNativeFilter = pushedDownFilter();
+		mNativeFilter.appendLogcatArgs(cmd, SDK);
+		
+		return cmd.toArray(new String[cmd.size()]);
+	}
+	
+	/**
+	 * Lines logcat drops are gone for the scrollback, background capture and
+	 * incident triggers too. Background capture needs the whole stream; the
+	 * triggers only need lines from their lowest level up, which are let
+	 * through alongside the display filter. Neither sees replayed lines.
+	 */
+	private LogFilter pushedDownFilter() {
+		if (!isLive()) {
+			return mSelector.getFilter();
+		}
+		
+		if (mSegments != null) {
+			return LogFilter.ALL;
+		}
+		
+		return mSelector.getFilter().withFloor(mTriggers.getLowestLevel());
+	}
+	
+	/**
+	 * Restarts logcat, or the index query, with a wider pushed-down filter
+	 * once background capture or a trigger needs the lines it has been
+	 * dropping.
+	 */
+	private synchronized void widenCapture() {
+		if (mBatcher == null || mNativeFilter.covers(pushedDownFilter(), SDK)) {
+			return;
+		}
+		
+		if (!mPaused) {
+			resetDisplay();
+		}
+		
+		startReader();
+	}
+	
+	/**
+	 * Returns true if the source reads the device's own logs. Replayed and
+	 * synthetic lines are not written to the background capture or checked
+	 * against triggers, so a replay never feeds the file it reads.
+	 */
+	private boolean isLive() {
+		return mType == TYPE_LOGCAT || mType == TYPE_DMESG;
+	}
+	
+	private static int sdkVersion() {
+		try {
+			return Integer.parseInt(Build.VERSION.SDK);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
 	}
 	
-	private synchronized boolean killRequested() {
-		return threadKill;
+	private boolean killRequested() {
+		return mState.get() == STATE_STOPPING || mActiveGeneration != mGeneration;
 	}
 	
 	private void communicate(int msg) {
-		Message.obtain(mHandler, msg, "error").sendToTarget();
+		post(msg, "error");
+	}
+	
+	/**
+	 * Decodes the entry's line only if the filter lets it through; the
+	 * scrollback, capture and triggers all work on its bytes.
+	 */
+	private void logEntry(LogEntry entry) {
+		LineSelector selector = mSelector;
+		
+		if (selector.getFilter().accept(entry)) {
+			String line = entry.getLine();
+			logLine(line, selector.select(entry, line, LineSelector.searchStart(entry)));
+		}
+	}
+	
+	/**
+	 * Hands a line the selector did not reject to the batcher, along with
+	 * its search highlights.
+	 */
+	private void logLine(String line, int[] spans) {
+		if (spans != LineSelector.REJECTED) {
+			deliver(line, spans);
+		}
+	}
+	
+	// called with the delivery lock held
+	private void deliver(String line, int[] spans) {
+		if (mPaused) {
+			mPending++;
+			reportPending();
+			return;
+		}
+		
+		mBatcher.add(line, spans);
+	}
+	
+	// merged lines arrive without their parsed entry, so one is only made when collapsing
+	private boolean collapsed(String line) {
+		if (!mCollapsing) {
+			return false;
+		}
+		
+		LogcatParser.parse(line, mRepeatEntry, mTagDictionary);
+		return mCollapser.add(mRepeatEntry);
+	}
+	
+	// called with the delivery lock held
+	private void flushRepeats() {
+		if (mCollapsing) {
+			mCollapser.flush();
+		}
+	}
+	
+	/**
+	 * Arranges for repeats still being counted to be reported once they
+	 * have been quiet for REPEAT_QUIET. The pipe running dry says nothing
+	 * about a storm being over, so the reader never reports them itself.
+	 */
+	// called with the delivery lock held
+	private void scheduleRepeatFlush() {
+		if (!mCollapsing || mRepeatFlushScheduled || !mCollapser.hasPending()) {
+			return;
+		}
+		
+		try {
+			mTimer.schedule(mRepeatFlush, REPEAT_QUIET, TimeUnit.MILLISECONDS);
+			mRepeatFlushScheduled = true;
+		} catch (RejectedExecutionException e) {
+			// the service is being destroyed
+		}
+	}
+	
+	private final Runnable mRepeatFlush = new Runnable() {
+		public void run() {
+			synchronized (mDeliveryLock) {
+				mRepeatFlushScheduled = false;
+				
+				if (!mCollapsing || mBatcher == null) {
+					return;
+				}
+				
+				mCollapser.flushQuiet(REPEAT_QUIET);
+				mBatcher.flush();
+				scheduleRepeatFlush();
+			}
+		}
+	};
+	
+	/**
+	 * Turns folding of repeated lines on or off. Repeats counted so far are
+	 * reported before it is turned off.
+	 */
+	private void setCollapseRepeats(boolean collapse) {
+		synchronized (mDeliveryLock) {
+			if (mCollapsing && !collapse && mCollapser != null) {
+				mCollapser.flush();
+				mCollapser.clear();
+				mBatcher.flush();
+			}
+			
+			mCollapsing = collapse;
+		}
+	}
+	
+	/**
+	 * Swaps in a new filter and re-delivers the scrollback through it, so the
+	 * change is visible immediately without restarting logcat. Only when the
+	 * running logcat, or index query, already drops lines the new filter
+	 * wants is it restarted with new arguments.
+	 */
+	private void applyFilter(LogFilter filter) {
+		// a reconnecting UI sends its filter again; re-delivering for it would be wasted
+		if (filter.isSameAs(mSelector.getFilter())) {
+			return;
+		}
+		
+		if (mBatcher != null && !mNativeFilter.covers(filter, SDK)) {
+			mSelector = mSelector.withFilter(filter);
+			
+			if (!mPaused) {
+				resetDisplay();
+			}
+			
+			startReader();
+			return;
+		}
+		
+		synchronized (mDeliveryLock) {
+			mSelector = mSelector.withFilter(filter);
+			redeliver();
+		}
+	}
+	
+	/**
+	 * Swaps in a new search and re-delivers the scrollback with it. The
+	 * search runs after the logcat filter, so logcat never needs restarting.
+	 */
+	private void applySearch(SearchMatcher search) {
+		SearchMatcher current = mSelector.getSearch();
+		
+		if (search == null ? current == null : current != null && search.getQuery().equals(current.getQuery())
+				&& search.isFiltering() == current.isFiltering()) {
+			return;
+		}
+		
+		synchronized (mDeliveryLock) {
+			mSelector = mSelector.withSearch(search);
+			redeliver();
+		}
+	}
+	
+	// called with the delivery lock held
+	private void redeliver() {
+		if (mBatcher == null) {
+			return;
+		}
+		
+		if (mPaused) {
+			mDisplayStale = true;
+			return;
+		}
+		
+		mBatcher.flush();
+		resetDisplay();
+		
+		LineSelector selector = mSelector;
+		LogFilter filter = selector.getFilter();
+		LogEntry entry = new LogEntry();
+		
+		for (int i = tailStart(0, REDELIVER_LINES, filter, entry); i < mScrollback.size(); i++) {
+			if (!accepted(i, filter, entry)) {
+				continue;
+			}
+			
+			String line = entry.getLine();
+			logLine(line, selector.select(entry, line, LineSelector.searchStart(entry)));
+		}
+		
+		mBatcher.flush();
+	}
+	
+	/**
+	 * Returns the scrollback index from which at most limit lines pass the
+	 * filter, looking back no further than the given index. The scrollback
+	 * holds far more than the display needs again at once.
+	 */
+	private int tailStart(int from, int limit, LogFilter filter, LogEntry entry) {
+		if (mScrollback.size() - from <= limit) {
+			return from;
+		}
+		
+		if (filter.acceptsAll()) {
+			return mScrollback.size() - limit;
+		}
+		
+		int found = 0;
+		
+		for (int i = mScrollback.size() - 1; i > from; i--) {
+			if (accepted(i, filter, entry) && ++found == limit) {
+				return i;
+			}
+		}
+		
+		return from;
+	}
+	
+	// reads a scrollback line into the entry if the filter takes it, checking the level before copying
+	private boolean accepted(int index, LogFilter filter, LogEntry entry) {
+		if (filter.getLevel() != 0 && mScrollback.getLevel(index) != filter.getLevel()) {
+			return false;
+		}
+		
+		return mScrollback.read(index, entry) && filter.accept(entry);
+	}
+	
+	/**
+	 * Freezes or unfreezes the display. While paused the reader keeps
+	 * capturing into the scrollback and only counts the lines the display
+	 * would have received. Resuming delivers those still in the scrollback
+	 * as one batch, after a marker for any that have scrolled out.
+	 */
+	private void setPaused(boolean paused) {
+		synchronized (mDeliveryLock) {
+			if (paused == mPaused) {
+				return;
+			}
+			
+			if (paused) {
+				if (mBatcher != null) {
+					mBatcher.flush();
+				}
+				
+				mPaused = true;
+				mPausedAt = mAdded;
+				mPending = 0;
+				mPendingReported = 0;
+				return;
+			}
+			
+			mPaused = false;
+			
+			if (mDisplayStale) {
+				mDisplayStale = false;
+				redeliver();
+				return;
+			}
+			
+			resumeDelivery();
+		}
+	}
+	
+	// called with the delivery lock held
+	private void resumeDelivery() {
+		int pending = mPending;
+		mPending = 0;
+		
+		if (mBatcher == null || pending == 0) {
+			return;
+		}
+		
+		int available = (int) Math.min(mAdded - mPausedAt, mScrollback.size());
+		LineSelector selector = mSelector;
+		LogFilter filter = selector.getFilter();
+		LogEntry entry = new LogEntry();
+		int start = tailStart(mScrollback.size() - available, REDELIVER_LINES, filter, entry);
+		ArrayList<String> lines = new ArrayList<String>(mScrollback.size() - start);
+		ArrayList<int[]> spans = new ArrayList<int[]>(mScrollback.size() - start);
+		
+		for (int i = start; i < mScrollback.size(); i++) {
+			if (!accepted(i, filter, entry)) {
+				continue;
+			}
+			
+			String line = entry.getLine();
+			int[] match = selector.select(entry, line, LineSelector.searchStart(entry));
+			
+			if (match == LineSelector.REJECTED) {
+				continue;
+			}
+			
+			lines.add(line);
+			spans.add(match);
+		}
+		
+		if (pending > lines.size()) {
+			mBatcher.addGap(pending - lines.size());
+		}
+		
+		for (int i = 0; i < lines.size(); i++) {
+			mBatcher.add(lines.get(i), spans.get(i));
+		}
+		
+		mBatcher.flush();
+	}
+	
+	/**
+	 * Returns the newest lines the display would show, at most max of them,
+	 * and drops whatever is queued for the UI, all under the delivery lock.
+	 * A UI that paints these and then drains the queue sees every line once,
+	 * without restarting the capture. When paused, the returned lines are
+	 * no longer counted as pending.
+	 */
+	private List<String> snapshot(int max) {
+		ArrayList<String> lines = new ArrayList<String>();
+		
+		synchronized (mDeliveryLock) {
+			if (mBatcher == null) {
+				return lines;
+			}
+			
+			mBatcher.flush();
+			mQueue.clear();
+			
+			LineSelector selector = mSelector;
+			LogFilter filter = selector.getFilter();
+			LogEntry entry = new LogEntry();
+			
+			for (int i = tailStart(0, max, filter, entry); i < mScrollback.size(); i++) {
+				if (!accepted(i, filter, entry)) {
+					continue;
+				}
+				
+				String line = entry.getLine();
+				
+				if (selector.select(entry, line, LineSelector.searchStart(entry)) != LineSelector.REJECTED) {
+					lines.add(line);
+				}
+			}
+			
+			if (mPaused) {
+				mDisplayStale = false;
+				mPausedAt = mAdded;
+				mPending = 0;
+			}
+		}
+		
+		return (lines.size() > max) ? lines.subList(lines.size() - max, lines.size()) : lines;
 	}
 	
-	private void logLine(String line) {
-		Message.obtain(mHandler, MSG_NEW_LINE, line).sendToTarget();
+	private synchronized boolean isCapturing(int type, String buffer) {
+		if (mReader == null || mState.get() == STATE_STOPPING || mState.get() == STATE_IDLE || type != mType) {
+			return false;
+		}
+		
+		return type != TYPE_LOGCAT || mBuffer.equals(buffer.toLowerCase());
+	}
+	
+	/**
+	 * Tells the UI how many lines are waiting behind a pause, at most once
+	 * every PENDING_INTERVAL. Called for each line held back, so the count
+	 * keeps moving on a stream that never goes quiet, and again when it
+	 * does, to send the last count.
+	 */
+	private void reportPending() {
+		if (!mPaused || mPending == mPendingReported) {
+			return;
+		}
+		
+		long now = System.nanoTime() / 1000000;
+		
+		if (now - mPendingReportTime < PENDING_INTERVAL) {
+			return;
+		}
+		
+		Handler handler = mHandler;
+		
+		if (handler != null) {
+			Message.obtain(handler, MSG_PENDING_LINES, mPending, 0).sendToTarget();
+		}
+		
+		mPendingReported = mPending;
+		mPendingReportTime = now;
+	}
+	
+	private final IncidentRecorder.Listener mIncidentListener = new IncidentRecorder.Listener() {
+		public void onIncident(File file) {
+			// the rule is left out so this line cannot fire it again
+			Log.i("Logger", "Incident saved to " + file);
+			post(MSG_INCIDENT, file.getPath());
+		}
+		
+		public void onIncidentFailed(IOException e) {
+			Log.e("Logger", "Could not save an incident: " + e.toString());
+		}
+	};
+	
+	/**
+	 * Stores and delivers a repeat summary like any other line, so it is
+	 * filtered, searched, scrolled back and exported.
+	 */
+	private final RepeatCollapser.Listener mRepeatListener = new RepeatCollapser.Listener() {
+		// called with the delivery lock held
+		public void onRepeats(String summary) {
+			LogEntry entry = new LogEntry();
+			LogcatParser.parse(summary, entry, mTagDictionary);
+			mScrollback.add(summary);
+			mAdded++;
+			logLine(summary, mSelector.select(entry, summary, LineSelector.searchStart(entry)));
+		}
+	};
+	
+	private final LineBatcher.Listener mChunkListener = new LineBatcher.Listener() {
+		public void onChunk(LineChunk chunk) {
+			if (mHandler == null) {
+				chunk.recycle();
+				return;
+			}
+			
+			if (mQueue.offer(chunk)) {
+				signalDrain();
+			}
+		}
+	};
+	
+	/**
+	 * Tells the UI to drop the lines it has before the ones that follow.
+	 * The reset travels through the chunk queue so it cannot overtake lines
+	 * queued before it.
+	 */
+	private void resetDisplay() {
+		if (mQueue.reset()) {
+			signalDrain();
+		}
+	}
+	
+	private void signalDrain() {
+		if (!post(MSG_NEW_LINES, mQueue)) {
+			mQueue.cancelSignal();
+		}
 	}
 	
 	public static void setHandler(Handler handler) {
 		mHandler = handler;
 	}
 	
+	/**
+	 * Sends a message to the UI, if one is attached. While capturing in the
+	 * background with no activity bound there is nobody to tell, and false
+	 * is returned.
+	 */
+	private static boolean post(int what, Object obj) {
+		Handler handler = mHandler;
+		
+		if (handler == null) {
+			return false;
+		}
+		
+		Message.obtain(handler, what, obj).sendToTarget();
+		return true;
+	}
+	
+	private void capture(String line) {
+		SegmentWriter segments = mSegments;
+		
+		if (segments == null) {
+			return;
+		}
+		
+		try {
+			segments.append(line);
+		} catch (IOException e) {
+			abortCapture(segments, e);
+		}
+	}
+	
+	private void capture(LogEntry entry) {
+		SegmentWriter segments = mSegments;
+		
+		if (segments == null) {
+			return;
+		}
+		
+		try {
+			segments.append(entry.buffer, entry.start, entry.end);
+		} catch (IOException e) {
+			abortCapture(segments, e);
+		}
+	}
+	
+	private void flushCapture() {
+		SegmentWriter segments = mSegments;
+		
+		if (segments == null) {
+			return;
+		}
+		
+		try {
+			segments.flush();
+		} catch (IOException e) {
+			abortCapture(segments, e);
+		}
+	}
+	
+	// called by the reader with the delivery lock held, so no service lock here
+	private void abortCapture(SegmentWriter segments, IOException e) {
+		Log.e("Logger", "Background capture failed: " + e.toString());
+		mSegments = null;
+		
+		try {
+			segments.close();
+		} catch (IOException ignored) {
+		}
+	}
+	
+	/**
+	 * Turns the rolling on-disk capture on or off. While it is on the
+	 * service is kept started, so capture continues after the activity
+	 * unbinds.
+	 */
+	private synchronized void setBackgroundCapture(boolean enabled) {
+		if (enabled == (mSegments != null)) {
+			return;
+		}
+		
+		if (enabled) {
+			mSegments = new SegmentWriter(new File(CAPTURE_DIR), SEGMENT_SIZE, SEGMENT_AGE, CAPTURE_QUOTA);
+			startService(new Intent(this, LogProcessor.class));
+			widenCapture();
+			return;
+		}
+		
+		SegmentWriter segments = mSegments;
+		mSegments = null;
+		
+		synchronized (mDeliveryLock) {
+			try {
+				segments.close();
+			} catch (IOException e) {
+				Log.e("Logger", "Error closing background capture: " + e.toString());
+			}
+		}
+		
+		// while bound the service stays started, to idle out after the unbind
+		if (!mBound) {
+			stopReader(false);
+			stopSelf();
+		}
+	}
+	
+	/**
+	 * Binding also starts the service, so it outlives the activity's
+	 * pauses and the next bind finds the capture running. It stops itself
+	 * once nothing has been bound for the idle timeout.
+	 */
 	public IBinder onBind(Intent intent) {
+		mBound = true;
+		mIdleHandler.removeCallbacks(mIdleStop);
+		startService(new Intent(this, LogProcessor.class));
 		return mBinder;
 	}
 	
+	@Override
+	public void onRebind(Intent intent) {
+		mBound = true;
+		mIdleHandler.removeCallbacks(mIdleStop);
+	}
+	
 	@Override
 	public boolean onUnbind(Intent intent) {
-		requestKill();
-		stopSelf();
+		mBound = false;
+		mHandler = null;
 		
-		return false;
+		if (mSegments == null) {
+			mIdleHandler.postDelayed(mIdleStop, mIdleTimeout);
+		}
+		
+		return true;
 	}
 	
-	private final ILogProcessor.Stub mBinder = new ILogProcessor.Stub() {
-		public void reset(String buffer) {
-			requestKill();
-
-			while (!mStatus) {
-				try {
-					Log.d("Logger", "waiting...");
-				} catch (Exception e) {
-					Log.d("Logger", "Woot! obj has been interrupted!");
-				}
+	private final Runnable mIdleStop = new Runnable() {
+		public void run() {
+			if (mBound || mSegments != null) {
+				return;
 			}
 			
-			threadKill = false;
+			Log.i("Logger", "Service idle, stopping");
+			stopReader(false);
+			stopSelf();
+		}
+	};
+	
+	private final ILogProcessor.Stub mBinder = new ILogProcessor.Stub() {
+		public void reset(String buffer) {
 			mBuffer = buffer.toLowerCase();
-			mLines = 0;
-			mScrollback = new Vector<String>();
-			Thread thr = new Thread(worker);
-			thr.start();
+			startReader();
 		}
 		
 		public void run(int type) {
 			mType = type;
-			mLines = 0;
-			mScrollback = new Vector<String>();
-			Thread thr = new Thread(worker);
-			thr.start();
+			startReader();
 		}
 		
 		public void restart(int type) {
-			requestKill();
-			
-			while(!mStatus) {
-				try {
-					Log.d("Logger", "waiting...");
-				} catch (Exception e) {
-					Log.d("Logger", "Woot! we have an exception");
-				}
-			}
-			
-			threadKill = false;
 			run(type);
 		}
 		
 		public void stop() {
 			Log.i("Logger", "stop() method called in service.");
-			requestKill();
+			stopReader(false);
 			stopSelf();
 		}
 		
+		public void setBackgroundCapture(boolean enabled) {
+			LogProcessor.this.setBackgroundCapture(enabled);
+		}
+		
+		public boolean isBackgroundCapture() {
+			return mSegments != null;
+		}
+		
+		public void setFilter(char level, String tags, int pid) {
+			applyFilter(new LogFilter(level, tags, pid, mTagDictionary));
+		}
+		
+		public String getStats() {
+			return mStats.format(mQueue.size(), mQueue.getCapacity(), mQueue.getDropped());
+		}
+		
+		public void setTriggers(String[] rules) {
+			mTriggers = new TriggerRules(rules, mTagDictionary);
+			widenCapture();
+		}
+		
+		public String[] getTriggers() {
+			return mTriggers.getRules();
+		}
+		
+		public void setIncidentWindow(int preRollSeconds, int postRollSeconds) {
+			mIncidents.setWindow(preRollSeconds * 1000L, postRollSeconds * 1000L);
+		}
+		
+		public List<String> snapshot(int max) {
+			return LogProcessor.this.snapshot(max);
+		}
+		
+		public boolean isCapturing(int type, String buffer) {
+			return LogProcessor.this.isCapturing(type, buffer);
+		}
+		
+		public void setIdleTimeout(int seconds) {
+			mIdleTimeout = seconds * 1000L;
+		}
+		
+		public void setCollapseRepeats(boolean collapse) {
+			LogProcessor.this.setCollapseRepeats(collapse);
+		}
+		
+		public void setPaused(boolean paused) {
+			LogProcessor.this.setPaused(paused);
+		}
+		
+		public void setOverflowPolicy(int policy) {
+			mQueue.setPolicy(policy);
+		}
+		
+		public void setSearch(String query, boolean matchesOnly) {
+			if (query == null || query.trim().length() == 0) {
+				applySearch(null);
+			} else {
+				applySearch(new SearchMatcher(query, matchesOnly));
+			}
+		}
+		
 		public void write(String file, String tag) {
 			mFilterTag = tag;
 			mFile = file;
@@ -218,40 +1289,37 @@ public class LogProcessor extends Service {
 	
 	private void writeLog() {
 		
-		try {			
+		try {
 			File f = new File("/sdcard/" + mFile);
-			FileWriter w = new FileWriter(f);
+			LineCursor lines = mScrollback.cursor();
+			long start = System.currentTimeMillis();
 			
-			for (int i = 0; i < mScrollback.size(); i++) {
-				String line = mScrollback.elementAt(i);
-				
-				if (!mFilterTag.equals("")) {
-		    		String tag = line.substring(2, line.indexOf("("));
-		    		
-		    		if (mFilterTag.toLowerCase().equals(tag.toLowerCase().trim())) {
-		    			w.write(line + "\n");
-		    		}
-		    	} else {
-		    		w.write(mScrollback.elementAt(i) + "\n");
-		    	}
-
-				i++;
-			}
+			// the same level and tags the view shows; no dictionary, so export never grows it
+			LogFilter filter = new LogFilter(mSelector.getFilter().getLevel(), mFilterTag, -1, null);
+			new LogExporter().export(lines, filter, f, mProgressListener);
+			mStats.exportFinished(lines.size(), System.currentTimeMillis() - start);
 			
-			if (!mFile.equals("tmp.log")) {
-				Message.obtain(mHandler, MSG_LOG_SAVE, "saved").sendToTarget();
+			if (!mFile.equals(ATTACHMENT_FILE)) {
+				post(MSG_LOG_SAVE, "saved");
 			} else {
-				Message.obtain(mHandler, MSG_LOG_SAVE, "attachment").sendToTarget();
+				post(MSG_LOG_SAVE, "attachment");
 			}
-			
-			w.close();
-			f = null;
-		} catch (Exception e) {
+		} catch (IOException e) {
 			Log.e("Logger", "Error writing the log to a file. Exception: " + e.toString());
-			Message.obtain(mHandler, MSG_LOG_SAVE, "error").sendToTarget();
+			post(MSG_LOG_SAVE, "error");
 		}
 		
 		return;
 	}
+	
+	private final LogExporter.ProgressListener mProgressListener = new LogExporter.ProgressListener() {
+		public void onProgress(int done, int total) {
+			Handler handler = mHandler;
+			
+			if (handler != null) {
+				Message.obtain(handler, MSG_LOG_PROGRESS, done, total).sendToTarget();
+			}
+		}
+	};
 
 }
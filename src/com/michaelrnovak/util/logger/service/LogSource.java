@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where the reader gets its log text from. A source produces lines in one
+ * of the formats {@link LogcatParser} understands, so every source runs
+ * through the same parse, filter and delivery path.
+ */
+public interface LogSource {
+	
+	/**
+	 * Starts the source and returns its output. Called once.
+	 */
+	InputStream open() throws IOException;
+	
+	/**
+	 * Stops the source so that a read blocked on it returns. May be called
+	 * from any thread, before or after open, and more than once.
+	 */
+	void close();
+}
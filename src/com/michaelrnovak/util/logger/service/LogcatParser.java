@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming parser for logcat output. Bytes are read straight from the
+ * stream into one reusable buffer and each record is described by offsets
+ * in a {@link LogEntry}, so parsing a line allocates nothing.
+ * 
+ * The brief, time, threadtime and long formats are recognised per record;
+ * anything else (banners, dmesg output) comes back as {@link LogEntry#FORMAT_RAW}.
+ */
+public class LogcatParser {
+	
+	private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+	private static final int[] DAYS_BEFORE_MONTH = {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334};
+	
+	private final InputStream mIn;
+	private TagDictionary mTags;
+	private byte[] mBuf;
+	private int mMark = 0;
+	private int mPos = 0;
+	private int mLimit = 0;
+	private boolean mEof = false;
+	
+	public LogcatParser(InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE);
+	}
+	
+	public LogcatParser(InputStream in, int bufferSize) {
+		mIn = in;
+		mBuf = new byte[bufferSize];
+	}
+	
+	/**
+	 * Makes every entry read from now on carry its tag id from the given
+	 * dictionary.
+	 */
+	public void setTagDictionary(TagDictionary tags) {
+		mTags = tags;
+	}
+	
+	/**
+	 * Reads the next record into the entry. Returns false once the stream is
+	 * exhausted. The entry refers to the parser's buffer and is only valid
+	 * until the next call.
+	 */
+	public boolean next(LogEntry entry) throws IOException {
+		mMark = mPos;
+		
+		int eol = findLineEnd();
+		
+		if (eol < 0) {
+			return false;
+		}
+		
+		int headerEnd = stripCr(mPos, eol) - mMark;
+		consumeLine(eol);
+		
+		if (isLongHeader(mBuf, mMark, mMark + headerEnd)) {
+			int msgStart = mPos - mMark;
+			int msgEnd = msgStart;
+			
+			while ((eol = findLineEnd()) >= 0) {
+				int lineStart = mPos;
+				int lineEnd = stripCr(lineStart, eol);
+				consumeLine(eol);
+				
+				if (lineEnd == lineStart) {
+					break;
+				}
+				
+				msgEnd = lineEnd - mMark;
+			}
+			
+			parseLong(mBuf, mMark, mMark + headerEnd, mMark + msgStart, mMark + msgEnd, entry);
+		} else {
+			parse(mBuf, mMark, mMark + headerEnd, entry);
+		}
+		
+		if (mTags != null && entry.hasTag()) {
+			entry.tagId = mTags.intern(entry.buffer, entry.tagStart, entry.tagEnd);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Returns true if a call to {@link #next(LogEntry)} can likely complete
+	 * without blocking.
+	 */
+	public boolean ready() throws IOException {
+		return mPos < mLimit || mIn.available() > 0;
+	}
+	
+	/**
+	 * Parses a single line in any of the supported one-line formats,
+	 * optionally preceded by the "[buffer] " prefix of a merged capture.
+	 */
+	public static void parse(byte[] b, int s, int e, LogEntry entry) {
+		entry.reset(b, s, e);
+		
+		if (e - s > 2 && b[s] == '[' && b[s + 1] != ' ') {
+			for (int i = s + 1; i < e - 1; i++) {
+				if (b[i] == ']') {
+					if (b[i + 1] == ' ') {
+						entry.sourceStart = s + 1;
+						entry.sourceEnd = i;
+						s = i + 2;
+					}
+					
+					break;
+				}
+			}
+		}
+		
+		if (parseBrief(b, s, e, entry)) {
+			entry.format = LogEntry.FORMAT_BRIEF;
+			return;
+		}
+		
+		long ts = parseTimestamp(b, s, e);
+		
+		if (ts < 0) {
+			return;
+		}
+		
+		int p = skipSpaces(b, s + 18, e);
+		
+		if (parseBrief(b, p, e, entry)) {
+			entry.format = LogEntry.FORMAT_TIME;
+			entry.timestamp = ts;
+		} else if (parseThreadtime(b, p, e, entry)) {
+			entry.format = LogEntry.FORMAT_THREADTIME;
+			entry.timestamp = ts;
+		}
+	}
+	
+	public static void parse(String line, LogEntry entry) {
+		byte[] b = IndexedLogWriter.utf8(line);
+		parse(b, 0, b.length, entry);
+	}
+	
+	public static void parse(String line, LogEntry entry, TagDictionary tags) {
+		parse(line, entry);
+		
+		if (entry.hasTag()) {
+			entry.tagId = tags.intern(entry.buffer, entry.tagStart, entry.tagEnd);
+		}
+	}
+	
+	/**
+	 * Returns the length of the "[buffer] " prefix a merged capture puts in
+	 * front of each line, or 0 if there is none.
+	 */
+	public static int sourcePrefixLength(CharSequence line) {
+		int len = line.length();
+		
+		if (len < 3 || line.charAt(0) != '[' || line.charAt(1) == ' ') {
+			return 0;
+		}
+		
+		for (int i = 1; i < len - 1; i++) {
+			if (line.charAt(i) == ']') {
+				return (line.charAt(i + 1) == ' ') ? i + 2 : 0;
+			}
+		}
+		
+		return 0;
+	}
+	
+	// L/TAG( PID): MSG
+	private static boolean parseBrief(byte[] b, int s, int e, LogEntry entry) {
+		if (e - s < 4 || b[s + 1] != '/' || !isLevel(b[s])) {
+			return false;
+		}
+		
+		int close = -1;
+		
+		for (int i = s + 2; i < e - 1; i++) {
+			if (b[i] == ')' && b[i + 1] == ':') {
+				close = i;
+				break;
+			}
+		}
+		
+		if (close < 0) {
+			return false;
+		}
+		
+		int open = close - 1;
+		
+		while (open > s + 1 && b[open] != '(') {
+			open--;
+		}
+		
+		if (open <= s + 1) {
+			return false;
+		}
+		
+		entry.level = (char) b[s];
+		entry.tagStart = s + 2;
+		entry.tagEnd = trimRight(b, s + 2, open);
+		entry.pid = parseInt(b, skipSpaces(b, open + 1, close), close);
+		entry.msgStart = skipOne(b, close + 2, e);
+		entry.msgEnd = e;
+		return true;
+	}
+	
+	// PID  TID L TAG: MSG, with the timestamp already consumed
+	private static boolean parseThreadtime(byte[] b, int p, int e, LogEntry entry) {
+		int pidEnd = skipDigits(b, p, e);
+		
+		if (pidEnd == p) {
+			return false;
+		}
+		
+		int tidStart = skipSpaces(b, pidEnd, e);
+		int tidEnd = skipDigits(b, tidStart, e);
+		int lvl = skipSpaces(b, tidEnd, e);
+		
+		if (tidEnd == tidStart || lvl + 2 > e || !isLevel(b[lvl]) || b[lvl + 1] != ' ') {
+			return false;
+		}
+		
+		int tagStart = lvl + 2;
+		int colon = -1;
+		
+		for (int i = tagStart; i < e; i++) {
+			if (b[i] == ':' && (i + 1 == e || b[i + 1] == ' ')) {
+				colon = i;
+				break;
+			}
+		}
+		
+		if (colon < 0) {
+			return false;
+		}
+		
+		entry.level = (char) b[lvl];
+		entry.pid = parseInt(b, p, pidEnd);
+		entry.tid = parseInt(b, tidStart, tidEnd);
+		entry.tagStart = tagStart;
+		entry.tagEnd = trimRight(b, tagStart, colon);
+		entry.msgStart = skipOne(b, colon + 1, e);
+		entry.msgEnd = e;
+		return true;
+	}
+	
+	// [ MM-DD HH:MM:SS.mmm  PID: TID L/TAG ]
+	private static boolean isLongHeader(byte[] b, int s, int e) {
+		return e - s > 22 && b[s] == '[' && b[s + 1] == ' ' && b[e - 1] == ']' && parseTimestamp(b, s + 2, e) >= 0;
+	}
+	
+	private static void parseLong(byte[] b, int s, int headerEnd, int msgStart, int msgEnd, LogEntry entry) {
+		entry.reset(b, s, Math.max(headerEnd, msgEnd));
+		entry.timestamp = parseTimestamp(b, s + 2, headerEnd);
+		
+		int p = skipSpaces(b, s + 20, headerEnd);
+		int pidEnd = skipDigits(b, p, headerEnd);
+		entry.pid = parseInt(b, p, pidEnd);
+		
+		int tidStart = skipSpaces(b, pidEnd + 1, headerEnd);
+		int tidEnd = tidStart;
+		
+		while (tidEnd < headerEnd && b[tidEnd] != ' ') {
+			tidEnd++;
+		}
+		
+		entry.tid = parseInt(b, tidStart, tidEnd);
+		
+		int lvl = skipSpaces(b, tidEnd, headerEnd);
+		
+		if (lvl + 2 < headerEnd && isLevel(b[lvl]) && b[lvl + 1] == '/') {
+			entry.level = (char) b[lvl];
+			entry.tagStart = lvl + 2;
+			entry.tagEnd = trimRight(b, lvl + 2, headerEnd - 1);
+		}
+		
+		entry.format = LogEntry.FORMAT_LONG;
+		entry.msgStart = msgStart;
+		entry.msgEnd = msgEnd;
+	}
+	
+	// MM-DD HH:MM:SS.mmm, returned as milliseconds since the start of the year
+	static long parseTimestamp(byte[] b, int s, int e) {
+		if (e - s < 18 || b[s + 2] != '-' || b[s + 5] != ' ' || b[s + 8] != ':'
+				|| b[s + 11] != ':' || b[s + 14] != '.') {
+			return -1;
+		}
+		
+		int month = digits(b, s, 2);
+		int day = digits(b, s + 3, 2);
+		int hour = digits(b, s + 6, 2);
+		int min = digits(b, s + 9, 2);
+		int sec = digits(b, s + 12, 2);
+		int ms = digits(b, s + 15, 3);
+		
+		if (month < 1 || month > 12 || day < 0 || hour < 0 || min < 0 || sec < 0 || ms < 0) {
+			return -1;
+		}
+		
+		long days = DAYS_BEFORE_MONTH[month - 1] + day - 1;
+		return ((((days * 24) + hour) * 60 + min) * 60 + sec) * 1000 + ms;
+	}
+	
+	private static int digits(byte[] b, int s, int count) {
+		int v = 0;
+		
+		for (int i = s; i < s + count; i++) {
+			if (b[i] < '0' || b[i] > '9') {
+				return -1;
+			}
+			
+			v = v * 10 + (b[i] - '0');
+		}
+		
+		return v;
+	}
+	
+	private static int parseInt(byte[] b, int s, int e) {
+		int v = 0;
+		boolean any = false;
+		
+		for (int i = s; i < e && b[i] >= '0' && b[i] <= '9'; i++) {
+			v = v * 10 + (b[i] - '0');
+			any = true;
+		}
+		
+		return any ? v : -1;
+	}
+	
+	private static boolean isLevel(byte c) {
+		return c == 'V' || c == 'D' || c == 'I' || c == 'W' || c == 'E' || c == 'F' || c == 'A';
+	}
+	
+	private static int skipSpaces(byte[] b, int p, int e) {
+		while (p < e && b[p] == ' ') {
+			p++;
+		}
+		
+		return p;
+	}
+	
+	private static int skipOne(byte[] b, int p, int e) {
+		return (p < e && b[p] == ' ') ? p + 1 : Math.min(p, e);
+	}
+	
+	private static int skipDigits(byte[] b, int p, int e) {
+		while (p < e && b[p] >= '0' && b[p] <= '9') {
+			p++;
+		}
+		
+		return p;
+	}
+	
+	private static int trimRight(byte[] b, int s, int e) {
+		while (e > s && b[e - 1] == ' ') {
+			e--;
+		}
+		
+		return e;
+	}
+	
+	private int stripCr(int s, int eol) {
+		return (eol > s && mBuf[eol - 1] == '\r') ? eol - 1 : eol;
+	}
+	
+	private void consumeLine(int eol) {
+		mPos = (eol < mLimit) ? eol + 1 : mLimit;
+	}
+	
+	/**
+	 * Returns the index of the next line terminator, or the end of the data
+	 * if the stream ended without one, or -1 if nothing is left.
+	 */
+	private int findLineEnd() throws IOException {
+		int scan = mPos;
+		
+		while (true) {
+			for (int i = scan; i < mLimit; i++) {
+				if (mBuf[i] == '\n') {
+					return i;
+				}
+			}
+			
+			if (mEof) {
+				return (mPos < mLimit) ? mLimit : -1;
+			}
+			
+			int limit = mLimit;
+			scan = limit - fill();
+		}
+	}
+	
+	/**
+	 * Reads more input, first moving the current record to the front of the
+	 * buffer (or growing it). Returns how far existing data was shifted.
+	 */
+	private int fill() throws IOException {
+		int shift = mMark;
+		
+		if (shift > 0) {
+			System.arraycopy(mBuf, mMark, mBuf, 0, mLimit - mMark);
+			mPos -= shift;
+			mLimit -= shift;
+			mMark = 0;
+		} else if (mLimit == mBuf.length) {
+			byte[] grown = new byte[mBuf.length * 2];
+			System.arraycopy(mBuf, 0, grown, 0, mLimit);
+			mBuf = grown;
+		}
+		
+		int n = mIn.read(mBuf, mLimit, mBuf.length - mLimit);
+		
+		if (n < 0) {
+			mEof = true;
+		} else {
+			mLimit += n;
+		}
+		
+		return shift;
+	}
+}
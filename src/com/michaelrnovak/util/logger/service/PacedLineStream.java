@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A stream of generated lines, each released at its due time. Lines that are
+ * due count as available, so the reader batches them the way it batches a
+ * busy logcat pipe.
+ */
+abstract class PacedLineStream extends InputStream {
+	
+	private byte[] mLine = new byte[256];
+	private int mPos = 0;
+	private int mEnd = 0;
+	private long mDue = 0;
+	private long mStart = -1;
+	private boolean mEof = false;
+	private volatile boolean mClosed = false;
+	
+	/**
+	 * Sets up the next line with {@link #setLine} or {@link #repeatLine} and
+	 * returns when it is due, in milliseconds from the start of the stream,
+	 * or -1 at the end.
+	 */
+	protected abstract long nextLine() throws IOException;
+	
+	/**
+	 * Makes b[start, end) the next line; the newline is added here.
+	 */
+	protected void setLine(byte[] b, int start, int end) {
+		int length = end - start;
+		
+		if (length + 1 > mLine.length) {
+			mLine = new byte[Math.max(length + 1, mLine.length * 2)];
+		}
+		
+		System.arraycopy(b, start, mLine, 0, length);
+		mLine[length] = '\n';
+		mEnd = length + 1;
+		mPos = 0;
+	}
+	
+	/**
+	 * Makes the previous line the next line again.
+	 */
+	protected void repeatLine() {
+		mPos = 0;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		
+		if (!load() || !waitUntilDue()) {
+			return -1;
+		}
+		
+		int n = Math.min(len, mEnd - mPos);
+		System.arraycopy(mLine, mPos, b, off, n);
+		mPos += n;
+		
+		return n;
+	}
+	
+	@Override
+	public int available() throws IOException {
+		if (mClosed || !load()) {
+			return 0;
+		}
+		
+		return (now() >= mStart + mDue) ? mEnd - mPos : 0;
+	}
+	
+	@Override
+	public void close() {
+		synchronized (this) {
+			mClosed = true;
+			notifyAll();
+		}
+	}
+	
+	private boolean load() throws IOException {
+		if (mStart < 0) {
+			mStart = now();
+		}
+		
+		while (mPos >= mEnd) {
+			if (mEof) {
+				return false;
+			}
+			
+			long due = nextLine();
+			
+			if (due < 0) {
+				mEof = true;
+				return false;
+			}
+			
+			mDue = due;
+		}
+		
+		return true;
+	}
+	
+	private synchronized boolean waitUntilDue() {
+		while (!mClosed) {
+			long remaining = mStart + mDue - now();
+			
+			if (remaining <= 0) {
+				return true;
+			}
+			
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		
+		return false;
+	}
+	
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+}
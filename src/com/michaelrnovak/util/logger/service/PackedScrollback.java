@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link Scrollback} that keeps lines as UTF-8 bytes in one direct buffer
+ * used as a ring, with a record of position, length, level and tag id per
+ * line in parallel primitive arrays. Adding copies bytes and never
+ * allocates; Strings are only built when a line is read. The oldest lines
+ * are evicted when either the records or the bytes run out.
+ * 
+ * As with {@link RingScrollback}, readers take no lock. The writer moves
+ * the first valid index past a line before overwriting it, and readers
+ * check that index again after copying, so a read that races with
+ * eviction returns null instead of damaged text.
+ */
+public class PackedScrollback implements Scrollback<String> {
+	
+	private final ByteBuffer mArena;
+	private final int mArenaSize;
+	private final int mCapacity;
+	private final long[] mPositions;
+	private final int[] mLengths;
+	private final byte[] mLevels;
+	private final int[] mTagIds;
+	private final TagDictionary mTags;
+	private final CharsetEncoder mEncoder = Charset.forName("UTF-8").newEncoder();
+	private final LogEntry mEntry = new LogEntry();
+	private ByteBuffer mScratch = ByteBuffer.allocate(1024);
+	private long mWritten = 0;
+	private volatile long mFirst = 0;
+	private volatile long mTail = 0;
+	
+	/**
+	 * @param capacity the most lines kept
+	 * @param arenaSize the most bytes of line text kept
+	 * @param tags the dictionary tag ids are interned in
+	 */
+	public PackedScrollback(int capacity, int arenaSize, TagDictionary tags) {
+		if (capacity <= 0 || arenaSize <= 0) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity + ", " + arenaSize);
+		}
+		
+		mCapacity = capacity;
+		mArenaSize = arenaSize;
+		mArena = ByteBuffer.allocateDirect(arenaSize);
+		mPositions = new long[capacity];
+		mLengths = new int[capacity];
+		mLevels = new byte[capacity];
+		mTagIds = new int[capacity];
+		mTags = tags;
+		mEncoder.onMalformedInput(CodingErrorAction.REPLACE);
+		mEncoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+	
+	/**
+	 * Adds a line that is only available as a String, encoding and parsing
+	 * it to find its level and tag.
+	 */
+	public void add(String line) {
+		CharBuffer chars = CharBuffer.wrap(line);
+		mEncoder.reset();
+		mScratch.clear();
+		
+		while (true) {
+			CoderResult result = mEncoder.encode(chars, mScratch, true);
+			
+			if (!result.isOverflow()) {
+				break;
+			}
+			
+			ByteBuffer bigger = ByteBuffer.allocate(mScratch.capacity() * 2);
+			mScratch.flip();
+			bigger.put(mScratch);
+			mScratch = bigger;
+		}
+		
+		byte[] b = mScratch.array();
+		int length = mScratch.position();
+		LogcatParser.parse(b, 0, length, mEntry);
+		
+		int tagId = mEntry.hasTag() ? mTags.intern(b, mEntry.tagStart, mEntry.tagEnd) : -1;
+		append(b, 0, length, mEntry.level, tagId);
+	}
+	
+	/**
+	 * Adds a line straight from the parser's buffer. The entry's tag should
+	 * already be interned in this scrollback's dictionary.
+	 */
+	public void add(LogEntry entry) {
+		append(entry.buffer, entry.start, entry.end, entry.level, entry.tagId);
+	}
+	
+	private void append(byte[] b, int start, int end, char level, int tagId) {
+		int length = Math.min(end - start, mArenaSize);
+		long position = mWritten;
+		int offset = (int) (position % mArenaSize);
+		
+		// a line never wraps; the rest of the arena is skipped instead
+		if (offset + length > mArenaSize) {
+			position += mArenaSize - offset;
+			offset = 0;
+		}
+		
+		long written = position + length;
+		long tail = mTail;
+		long first = mFirst;
+		
+		if (tail - first == mCapacity) {
+			first++;
+		}
+		
+		while (first < tail && mPositions[slot(first)] < written - mArenaSize) {
+			first++;
+		}
+		
+		// publish the eviction before anything is overwritten
+		mFirst = first;
+		
+		mArena.position(offset);
+		mArena.put(b, start, length);
+		
+		int slot = slot(tail);
+		mPositions[slot] = position;
+		mLengths[slot] = length;
+		mLevels[slot] = (byte) level;
+		mTagIds[slot] = tagId;
+		mWritten = written;
+		mTail = tail + 1;
+	}
+	
+	public String get(int index) {
+		long seq = seq(index);
+		int length = mLengths[slot(seq)];
+		byte[] bytes = copy(mArena.duplicate(), seq, null);
+		
+		return (bytes != null) ? LogEntry.decode(bytes, 0, length) : null;
+	}
+	
+	/**
+	 * Copies the line into the entry's buffer, or a new one if that is too
+	 * small, and parses it there. The entry should not share its buffer
+	 * with a parser. Returns false if the line was evicted while reading.
+	 */
+	public boolean read(int index, LogEntry entry) {
+		return read(mArena.duplicate(), seq(index), entry);
+	}
+	
+	/**
+	 * Returns a cursor over the lines held now. Lines evicted before the
+	 * cursor reaches them are skipped, so it never holds up the writer.
+	 */
+	public LineCursor cursor() {
+		final long first = mFirst;
+		final long tail = mTail;
+		final ByteBuffer view = mArena.duplicate();
+		
+		return new LineCursor() {
+			private long mNext = first;
+			
+			public int size() {
+				return (int) (tail - first);
+			}
+			
+			public boolean next(LogEntry entry) {
+				while (mNext < tail) {
+					if (read(view, mNext++, entry)) {
+						return true;
+					}
+				}
+				
+				return false;
+			}
+			
+			public void rewind() {
+				mNext = first;
+			}
+		};
+	}
+	
+	private boolean read(ByteBuffer view, long seq, LogEntry entry) {
+		int slot = slot(seq);
+		int length = mLengths[slot];
+		int tagId = mTagIds[slot];
+		byte[] bytes = copy(view, seq, entry.buffer);
+		
+		if (bytes == null || mFirst > seq) {
+			return false;
+		}
+		
+		LogcatParser.parse(bytes, 0, length, entry);
+		entry.tagId = tagId;
+		return true;
+	}
+	
+	/**
+	 * Returns the level of the line without copying it, or 0 if it has none.
+	 */
+	public char getLevel(int index) {
+		return (char) (mLevels[slot(seq(index))] & 0xff);
+	}
+	
+	public int size() {
+		return (int) (mTail - mFirst);
+	}
+	
+	public int capacity() {
+		return mCapacity;
+	}
+	
+	public void clear() {
+		mFirst = mTail;
+	}
+	
+	public List<String> snapshot() {
+		ByteBuffer view = mArena.duplicate();
+		long tail = mTail;
+		ArrayList<String> list = new ArrayList<String>((int) (tail - mFirst));
+		byte[] bytes = null;
+		
+		for (long seq = mFirst; seq < tail; seq++) {
+			int length = mLengths[slot(seq)];
+			byte[] copy = copy(view, seq, bytes);
+			
+			if (copy != null) {
+				bytes = copy;
+				list.add(LogEntry.decode(bytes, 0, length));
+			}
+		}
+		
+		return list;
+	}
+	
+	private long seq(int index) {
+		long tail = mTail;
+		long first = mFirst;
+		
+		if (index < 0 || first + index >= tail) {
+			throw new IndexOutOfBoundsException("index " + index + ", size " + (tail - first));
+		}
+		
+		return first + index;
+	}
+	
+	// copies a line's bytes, into dst if it is large enough; null if evicted meanwhile
+	private byte[] copy(ByteBuffer view, long seq, byte[] dst) {
+		int slot = slot(seq);
+		long position = mPositions[slot];
+		int length = mLengths[slot];
+		int offset = (int) (position % mArenaSize);
+		
+		// a record that does not fit was torn by the writer reusing its slot
+		if (mFirst > seq || length < 0 || offset + length > mArenaSize) {
+			return null;
+		}
+		
+		if (dst == null || dst.length < length) {
+			dst = new byte[Math.max(length, 256)];
+		}
+		
+		view.position(offset);
+		view.get(dst, 0, length);
+		
+		return (mFirst > seq) ? null : dst;
+	}
+	
+	private int slot(long seq) {
+		return (int) (seq % mCapacity);
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+/**
+ * Throughput and latency counters for the capture pipeline. Latencies are
+ * kept as histograms with power-of-two microsecond buckets, so recording is
+ * a few instructions and the report gives percentiles to within a factor of
+ * two. The per-line stages are only timed on a sample of lines to keep
+ * System.nanoTime off the common path.
+ */
+public class PipelineStats {
+	
+	public static final int STAGE_PARSE = 0;
+	public static final int STAGE_FILTER = 1;
+	public static final int STAGE_BATCH = 2;
+	public static final int STAGE_QUEUE = 3;
+	public static final int STAGE_RENDER = 4;
+	private static final String[] STAGE_NAMES = {"parse", "filter", "batch", "queue", "render"};
+	private static final int BUCKETS = 32;
+	private static final int SAMPLE_MASK = 15;
+	private static final long RATE_INTERVAL = 1000;
+	
+	private final long[][] mHistograms = new long[STAGE_NAMES.length][BUCKETS];
+	private final long[] mMax = new long[STAGE_NAMES.length];
+	private int mSampleCounter = 0;
+	private long mLines = 0;
+	private long mBytes = 0;
+	private long mRateTime = 0;
+	private long mRateLines = 0;
+	private long mRateBytes = 0;
+	private long mLineRate = 0;
+	private long mByteRate = 0;
+	private int mExports = 0;
+	private int mExportLines = 0;
+	private long mExportMillis = 0;
+	
+	/**
+	 * Returns true for one call in every SAMPLE_MASK + 1. Meant for the
+	 * reader, where a lost update between threads only shifts the sample.
+	 */
+	public boolean shouldSample() {
+		return (++mSampleCounter & SAMPLE_MASK) == 0;
+	}
+	
+	public synchronized void lineRead(int bytes) {
+		mLines++;
+		mBytes += bytes;
+	}
+	
+	public synchronized void record(int stage, long nanos) {
+		long micros = nanos / 1000;
+		int bucket = 0;
+		
+		while (bucket < BUCKETS - 1 && (1L << bucket) <= micros) {
+			bucket++;
+		}
+		
+		mHistograms[stage][bucket]++;
+		
+		if (micros > mMax[stage]) {
+			mMax[stage] = micros;
+		}
+	}
+	
+	public synchronized void exportFinished(int lines, long millis) {
+		mExports++;
+		mExportLines = lines;
+		mExportMillis = millis;
+	}
+	
+	/**
+	 * Formats the counters for display. Rates are measured between calls at
+	 * least a second apart, so a one second poll reads the current rate.
+	 */
+	public synchronized String format(int queueDepth, int queueCapacity, long dropped) {
+		long now = System.nanoTime() / 1000000;
+		
+		if (now - mRateTime >= RATE_INTERVAL) {
+			if (mRateTime != 0) {
+				long elapsed = now - mRateTime;
+				mLineRate = (mLines - mRateLines) * 1000 / elapsed;
+				mByteRate = (mBytes - mRateBytes) * 1000 / elapsed;
+			}
+			
+			mRateTime = now;
+			mRateLines = mLines;
+			mRateBytes = mBytes;
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append("read ").append(mLineRate).append(" lines/s, ").append(mByteRate / 1024).append(" KB/s\n");
+		sb.append("total ").append(mLines).append(" lines, ").append(mBytes / 1024).append(" KB\n");
+		sb.append("queue ").append(queueDepth).append('/').append(queueCapacity).append(", dropped ").append(dropped).append('\n');
+		sb.append("latency us   p50    p99    max\n");
+		
+		for (int i = 0; i < STAGE_NAMES.length; i++) {
+			sb.append(pad(STAGE_NAMES[i], 8));
+			sb.append(pad(String.valueOf(percentile(i, 50)), 7));
+			sb.append(pad(String.valueOf(percentile(i, 99)), 7));
+			sb.append(mMax[i]).append('\n');
+		}
+		
+		if (mExports > 0) {
+			sb.append("last export ").append(mExportLines).append(" lines in ").append(mExportMillis).append(" ms\n");
+		}
+		
+		return sb.toString();
+	}
+	
+	// upper bound of the bucket holding the given percentile, 0 if empty
+	private long percentile(int stage, int percent) {
+		long[] histogram = mHistograms[stage];
+		long total = 0;
+		
+		for (int i = 0; i < BUCKETS; i++) {
+			total += histogram[i];
+		}
+		
+		if (total == 0) {
+			return 0;
+		}
+		
+		long target = (total * percent + 99) / 100;
+		long seen = 0;
+		
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += histogram[i];
+			
+			if (seen >= target) {
+				return Math.min(1L << i, mMax[stage]);
+			}
+		}
+		
+		return mMax[stage];
+	}
+	
+	private static String pad(String s, int width) {
+		StringBuilder sb = new StringBuilder(s);
+		
+		while (sb.length() < width) {
+			sb.append(' ');
+		}
+		
+		return sb.toString();
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the output of a command such as logcat or dmesg.
+ */
+public class ProcessLogSource implements LogSource {
+	
+	private final String[] mCommand;
+	private volatile Process mProcess;
+	private volatile boolean mClosed = false;
+	
+	public ProcessLogSource(String... command) {
+		mCommand = command;
+	}
+	
+	public InputStream open() throws IOException {
+		Process process = Runtime.getRuntime().exec(mCommand);
+		mProcess = process;
+		
+		if (mClosed) {
+			process.destroy();
+		}
+		
+		return process.getInputStream();
+	}
+	
+	public void close() {
+		mClosed = true;
+		Process process = mProcess;
+		
+		if (process != null) {
+			process.destroy();
+		}
+	}
+}
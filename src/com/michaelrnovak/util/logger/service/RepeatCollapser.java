@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.TimeZone;
+
+/**
+ * Folds log storms into summary lines. The last few distinct lines are kept
+ * in a small window keyed on a hash of the level, pid, tag and message
+ * bytes. The first copy of a line passes through; later copies while it is
+ * still in the window are only counted. The count is handed to the
+ * listener as the line with a repeat count and the times of the first and
+ * last copy appended, when the line leaves the window, when it has been
+ * repeating for {@link #REPORT_INTERVAL} milliseconds, once it has gone
+ * quiet (see {@link #flushQuiet(long)}), or on {@link #flush()}. The times
+ * are the lines' own timestamps when they have one. Not thread safe.
+ */
+public class RepeatCollapser {
+	
+	public static final int WINDOW = 4;
+	public static final long REPORT_INTERVAL = 1000;
+	private static final long DAY = 24 * 60 * 60 * 1000;
+	
+	public interface Listener {
+		void onRepeats(String summary);
+	}
+	
+	private final Listener mListener;
+	private final int[] mHashes = new int[WINDOW];
+	private final byte[][] mKeys = new byte[WINDOW][];
+	private final int[] mKeyLengths = new int[WINDOW];
+	private final int[] mTagLengths = new int[WINDOW];
+	private final int[] mPids = new int[WINDOW];
+	private final byte[][] mLines = new byte[WINDOW][];
+	private final int[] mLineLengths = new int[WINDOW];
+	private final int[] mCounts = new int[WINDOW];
+	private final long[] mFirst = new long[WINDOW];
+	private final long[] mLast = new long[WINDOW];
+	private final long[] mFirstTime = new long[WINDOW];
+	private final long[] mLastTime = new long[WINDOW];
+	private final StringBuilder mSummary = new StringBuilder();
+	private int mSize = 0;
+	
+	public RepeatCollapser(Listener listener) {
+		mListener = listener;
+		
+		for (int i = 0; i < WINDOW; i++) {
+			mKeys[i] = new byte[128];
+			mLines[i] = new byte[256];
+		}
+	}
+	
+	/**
+	 * Returns true if the entry's line repeats one in the window and was
+	 * only counted, false if it should be passed on as usual. The line is
+	 * copied as bytes and only decoded for a summary.
+	 */
+	public boolean add(LogEntry entry) {
+		long now = System.nanoTime() / 1000000;
+		int hash = hash(entry);
+		
+		for (int i = 0; i < mSize; i++) {
+			if (mHashes[i] != hash || mPids[i] != entry.pid || !sameKey(i, entry)) {
+				continue;
+			}
+			
+			long time = timeOfDay(entry);
+			
+			if (mCounts[i]++ == 0) {
+				mFirst[i] = now;
+				mFirstTime[i] = time;
+			}
+			
+			mLast[i] = now;
+			mLastTime[i] = time;
+			storeLine(i, entry);
+			
+			if (now - mFirst[i] >= REPORT_INTERVAL) {
+				report(i);
+			}
+			
+			return true;
+		}
+		
+		int slot = (mSize < WINDOW) ? mSize++ : leastRecent();
+		int count = mCounts[slot];
+		String evicted = (count > 0) ? summary(slot, count) : null;
+		
+		// take the key and line before reporting, as the listener may parse other lines
+		storeKey(slot, entry);
+		storeLine(slot, entry);
+		mHashes[slot] = hash;
+		mPids[slot] = entry.pid;
+		mCounts[slot] = 0;
+		mLast[slot] = now;
+		
+		if (evicted != null) {
+			mListener.onRepeats(evicted);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Reports the lines whose last repeat came at least quiet milliseconds
+	 * ago. Meant to be called from a timer, so a storm that simply stops
+	 * still gets its summary.
+	 */
+	public void flushQuiet(long quiet) {
+		long now = System.nanoTime() / 1000000;
+		
+		for (int i = 0; i < mSize; i++) {
+			if (mCounts[i] > 0 && now - mLast[i] >= quiet) {
+				report(i);
+			}
+		}
+	}
+	
+	public boolean hasPending() {
+		for (int i = 0; i < mSize; i++) {
+			if (mCounts[i] > 0) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Reports every line with uncounted repeats, leaving the window as it is.
+	 */
+	public void flush() {
+		for (int i = 0; i < mSize; i++) {
+			if (mCounts[i] > 0) {
+				report(i);
+			}
+		}
+	}
+	
+	public void clear() {
+		for (int i = 0; i < mSize; i++) {
+			mCounts[i] = 0;
+		}
+		
+		mSize = 0;
+	}
+	
+	private void report(int slot) {
+		int count = mCounts[slot];
+		mCounts[slot] = 0;
+		mListener.onRepeats(summary(slot, count));
+	}
+	
+	private String summary(int slot, int count) {
+		StringBuilder sb = mSummary;
+		sb.setLength(0);
+		sb.append(LogEntry.decode(mLines[slot], 0, mLineLengths[slot])).append("  (repeated ").append(count);
+		sb.append(count == 1 ? " more time, " : " more times, ");
+		appendTime(sb, mFirstTime[slot]);
+		sb.append(" to ");
+		appendTime(sb, mLastTime[slot]);
+		sb.append(')');
+		
+		return sb.toString();
+	}
+	
+	// the line's own time of day, or the local time now for formats without one
+	private static long timeOfDay(LogEntry entry) {
+		if (entry.timestamp >= 0) {
+			return entry.timestamp % DAY;
+		}
+		
+		long now = System.currentTimeMillis();
+		return (now + TimeZone.getDefault().getOffset(now)) % DAY;
+	}
+	
+	// HH:mm:ss.SSS
+	private static void appendTime(StringBuilder sb, long time) {
+		pad(sb, time / 3600000, 2).append(':');
+		pad(sb, time / 60000 % 60, 2).append(':');
+		pad(sb, time / 1000 % 60, 2).append('.');
+		pad(sb, time % 1000, 3);
+	}
+	
+	private static StringBuilder pad(StringBuilder sb, long value, int width) {
+		for (long limit = 10; width > 1; width--, limit *= 10) {
+			if (value < limit) {
+				sb.append('0');
+			}
+		}
+		
+		return sb.append(value);
+	}
+	
+	private int leastRecent() {
+		int slot = 0;
+		
+		for (int i = 1; i < mSize; i++) {
+			if (mLast[i] < mLast[slot]) {
+				slot = i;
+			}
+		}
+		
+		return slot;
+	}
+	
+	// FNV-1a over the level, the tag and the message
+	private static int hash(LogEntry entry) {
+		byte[] b = entry.buffer;
+		int h = 0x811c9dc5;
+		
+		h = (h ^ entry.level) * 0x01000193;
+		
+		for (int i = entry.tagStart; i < entry.tagEnd; i++) {
+			h = (h ^ (b[i] & 0xff)) * 0x01000193;
+		}
+		
+		h = (h ^ 0xff) * 0x01000193;
+		
+		for (int i = entry.msgStart; i < entry.msgEnd; i++) {
+			h = (h ^ (b[i] & 0xff)) * 0x01000193;
+		}
+		
+		return h;
+	}
+	
+	// the key is the level byte, the tag, then the message
+	private void storeKey(int slot, LogEntry entry) {
+		int tag = entry.tagEnd - entry.tagStart;
+		int msg = entry.msgEnd - entry.msgStart;
+		int length = 1 + tag + msg;
+		
+		if (mKeys[slot].length < length) {
+			mKeys[slot] = new byte[Math.max(length, mKeys[slot].length * 2)];
+		}
+		
+		byte[] key = mKeys[slot];
+		key[0] = (byte) entry.level;
+		System.arraycopy(entry.buffer, entry.tagStart, key, 1, tag);
+		System.arraycopy(entry.buffer, entry.msgStart, key, 1 + tag, msg);
+		mKeyLengths[slot] = length;
+		mTagLengths[slot] = tag;
+	}
+	
+	private void storeLine(int slot, LogEntry entry) {
+		int length = entry.end - entry.start;
+		
+		if (mLines[slot].length < length) {
+			mLines[slot] = new byte[Math.max(length, mLines[slot].length * 2)];
+		}
+		
+		System.arraycopy(entry.buffer, entry.start, mLines[slot], 0, length);
+		mLineLengths[slot] = length;
+	}
+	
+	private boolean sameKey(int slot, LogEntry entry) {
+		int tag = entry.tagEnd - entry.tagStart;
+		int msg = entry.msgEnd - entry.msgStart;
+		byte[] key = mKeys[slot];
+		byte[] b = entry.buffer;
+		
+		if (mTagLengths[slot] != tag || mKeyLengths[slot] != 1 + tag + msg || key[0] != (byte) entry.level) {
+			return false;
+		}
+		
+		for (int i = 0; i < tag; i++) {
+			if (key[1 + i] != b[entry.tagStart + i]) {
+				return false;
+			}
+		}
+		
+		for (int i = 0; i < msg; i++) {
+			if (key[1 + tag + i] != b[entry.msgStart + i]) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+}
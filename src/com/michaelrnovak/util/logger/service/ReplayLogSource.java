@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replays a recorded log at its original pace, sped up by a factor. Lines
+ * with timestamps (-v time or threadtime) keep their recorded spacing;
+ * lines without are spaced {@link #UNTIMED_INTERVAL} apart before the
+ * speed-up. Bursts can be injected to see how the pipeline copes with a
+ * sudden flood, and the file can be looped for sustained load.
+ */
+public class ReplayLogSource implements LogSource {
+	
+	public static final long UNTIMED_INTERVAL = 1;
+	
+	private final File mFile;
+	private final float mSpeedUp;
+	private final boolean mLoop;
+	private long mBurstEvery = 0;
+	private int mBurstLines = 0;
+	private volatile Replay mStream;
+	private volatile boolean mClosed = false;
+	
+	/**
+	 * @param speedUp how many times faster than recorded to replay, or 0 to
+	 *        replay as fast as the reader takes it
+	 * @param loop whether to start over at the end of the file
+	 */
+	public ReplayLogSource(File file, float speedUp, boolean loop) {
+		mFile = file;
+		mSpeedUp = speedUp;
+		mLoop = loop;
+	}
+	
+	/**
+	 * Every so many milliseconds of replay time, repeats the current line
+	 * the given number of times with no delay. Call before open.
+	 */
+	public void setBurst(long every, int lines) {
+		mBurstEvery = every;
+		mBurstLines = lines;
+	}
+	
+	public InputStream open() throws IOException {
+		Replay stream = new Replay();
+		mStream = stream;
+		
+		if (mClosed) {
+			stream.close();
+		}
+		
+		return stream;
+	}
+	
+	public void close() {
+		mClosed = true;
+		Replay stream = mStream;
+		
+		if (stream != null) {
+			stream.close();
+		}
+	}
+	
+	private class Replay extends PacedLineStream {
+		private InputStream mIn;
+		private LogcatParser mParser;
+		private final LogEntry mEntry = new LogEntry();
+		private long mClock = 0;
+		private long mLastTimestamp = -1;
+		private long mNextBurst = mBurstEvery;
+		private int mRepeats = 0;
+		private long mLastDue = 0;
+		private boolean mAny = false;
+		
+		Replay() throws IOException {
+			reopen();
+		}
+		
+		@Override
+		protected long nextLine() throws IOException {
+			if (mRepeats > 0) {
+				mRepeats--;
+				repeatLine();
+				return mLastDue;
+			}
+			
+			if (!mParser.next(mEntry)) {
+				if (!mLoop || !mAny) {
+					return -1;
+				}
+				
+				reopen();
+				mLastTimestamp = -1;
+				
+				if (!mParser.next(mEntry)) {
+					return -1;
+				}
+			}
+			
+			mAny = true;
+			setLine(mEntry.buffer, mEntry.start, mEntry.end);
+			
+			if (mEntry.timestamp < 0) {
+				mClock += UNTIMED_INTERVAL;
+			} else if (mLastTimestamp >= 0 && mEntry.timestamp > mLastTimestamp) {
+				mClock += mEntry.timestamp - mLastTimestamp;
+			}
+			
+			if (mEntry.timestamp >= 0) {
+				mLastTimestamp = mEntry.timestamp;
+			}
+			
+			if (mBurstLines > 0 && mClock >= mNextBurst) {
+				mRepeats = mBurstLines;
+				mNextBurst = mClock + mBurstEvery;
+			}
+			
+			mLastDue = (mSpeedUp > 0) ? (long) (mClock / mSpeedUp) : 0;
+			return mLastDue;
+		}
+		
+		@Override
+		public void close() {
+			super.close();
+			
+			try {
+				mIn.close();
+			} catch (IOException ignored) {
+			}
+		}
+		
+		private void reopen() throws IOException {
+			if (mIn != null) {
+				mIn.close();
+			}
+			
+			mIn = new FileInputStream(mFile);
+			mParser = new LogcatParser(mIn);
+		}
+	}
+}
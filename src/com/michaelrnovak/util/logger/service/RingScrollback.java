@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring buffer implementation of {@link Scrollback}. Appends and evictions are
+ * O(1) and never allocate. The producer publishes through the volatile tail
+ * index, so readers need no lock; a read that races with the slot being
+ * overwritten returns null instead of a newer line.
+ */
+public class RingScrollback<E> implements Scrollback<E> {
+	
+	private final Object[] mSlots;
+	private final int mCapacity;
+	private volatile long mHead = 0;
+	private volatile long mTail = 0;
+	
+	public RingScrollback(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		
+		mCapacity = capacity;
+		mSlots = new Object[capacity];
+	}
+	
+	public void add(E item) {
+		long tail = mTail;
+		mSlots[(int) (tail % mCapacity)] = item;
+		mTail = tail + 1;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		long tail = mTail;
+		long first = first(tail);
+		
+		if (index < 0 || first + index >= tail) {
+			throw new IndexOutOfBoundsException("index " + index + ", size " + (tail - first));
+		}
+		
+		long seq = first + index;
+		E item = (E) mSlots[(int) (seq % mCapacity)];
+		
+		if (mTail - mCapacity > seq) {
+			return null;
+		}
+		
+		return item;
+	}
+	
+	public int size() {
+		long tail = mTail;
+		return (int) (tail - first(tail));
+	}
+	
+	public int capacity() {
+		return mCapacity;
+	}
+	
+	public void clear() {
+		long tail = mTail;
+		
+		for (int i = 0; i < mCapacity; i++) {
+			mSlots[i] = null;
+		}
+		
+		mHead = tail;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public List<E> snapshot() {
+		long tail = mTail;
+		long first = first(tail);
+		Object[] copy = new Object[(int) (tail - first)];
+		
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = mSlots[(int) ((first + i) % mCapacity)];
+		}
+		
+		// anything the producer overwrote while we were copying is dropped
+		long valid = Math.max(first, mTail - mCapacity);
+		ArrayList<E> list = new ArrayList<E>((int) Math.max(0, tail - valid));
+		
+		for (long seq = valid; seq < tail; seq++) {
+			Object item = copy[(int) (seq - first)];
+			
+			if (item != null) {
+				list.add((E) item);
+			}
+		}
+		
+		return list;
+	}
+	
+	private long first(long tail) {
+		return Math.max(mHead, tail - mCapacity);
+	}
+}
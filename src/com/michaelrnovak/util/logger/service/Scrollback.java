@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.List;
+
+/**
+ * Fixed-capacity history of captured lines. Once full, every add evicts the
+ * oldest entry. Only one thread may add or clear; any thread may read.
+ */
+public interface Scrollback<E> {
+	
+	void add(E item);
+	E get(int index);
+	int size();
+	int capacity();
+	void clear();
+	
+	/**
+	 * Returns a consistent copy of the current contents, oldest first,
+	 * without blocking the producer.
+	 */
+	List<E> snapshot();
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds a set of search terms in log lines. Plain terms are compiled into
+ * one Aho-Corasick automaton, so a line is scanned once however many there
+ * are; terms written as /regex/ are compiled once up front. Matching ignores
+ * ASCII case. Instances are immutable and may be shared by reader threads.
+ */
+public class SearchMatcher {
+	
+	private final String mQuery;
+	private final boolean mFiltering;
+	private final Pattern[] mPatterns;
+	
+	// automaton over character classes; class 0 is any character not in a term
+	private final int[] mAsciiClass = new int[128];
+	private final char[] mOtherChars;
+	private final int[] mOtherClass;
+	private final int mClassCount;
+	private final int[] mDelta;
+	private final int[] mMatchLength;
+	
+	private final ThreadLocal<Scratch> mScratch = new ThreadLocal<Scratch>() {
+		protected Scratch initialValue() {
+			return new Scratch(mPatterns);
+		}
+	};
+	
+	/**
+	 * Per-thread state reused from line to line.
+	 */
+	private static class Scratch {
+		final Matcher[] matchers;
+		int[] spans = new int[16];
+		
+		Scratch(Pattern[] patterns) {
+			matchers = new Matcher[patterns.length];
+			
+			for (int i = 0; i < patterns.length; i++) {
+				matchers[i] = patterns[i].matcher("");
+			}
+		}
+	}
+	
+	/**
+	 * @param query whitespace separated terms; a term between slashes is a
+	 *        regular expression and may itself contain spaces
+	 * @param filtering whether lines without a match should be dropped
+	 *        rather than just shown without highlights
+	 * @throws java.util.regex.PatternSyntaxException if a regex is invalid
+	 */
+	public SearchMatcher(String query, boolean filtering) {
+		mQuery = query;
+		mFiltering = filtering;
+		
+		ArrayList<String> literals = new ArrayList<String>();
+		ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+		split(query, literals, patterns);
+		mPatterns = patterns.toArray(new Pattern[patterns.size()]);
+		
+		StringBuilder other = new StringBuilder();
+		int classes = 1;
+		
+		for (int i = 0; i < literals.size(); i++) {
+			String term = literals.get(i);
+			
+			for (int j = 0; j < term.length(); j++) {
+				char c = term.charAt(j);
+				
+				if (c < 128) {
+					if (mAsciiClass[c] == 0) {
+						mAsciiClass[c] = classes++;
+					}
+				} else if (other.indexOf(String.valueOf(c)) < 0) {
+					other.append(c);
+				}
+			}
+		}
+		
+		mOtherChars = other.toString().toCharArray();
+		Arrays.sort(mOtherChars);
+		mOtherClass = new int[mOtherChars.length];
+		
+		for (int i = 0; i < mOtherChars.length; i++) {
+			mOtherClass[i] = classes++;
+		}
+		
+		for (int c = 'A'; c <= 'Z'; c++) {
+			mAsciiClass[c] = mAsciiClass[c - 'A' + 'a'];
+		}
+		
+		mClassCount = classes;
+		
+		int[][] built = build(literals);
+		mDelta = built[0];
+		mMatchLength = built[1];
+	}
+	
+	public String getQuery() {
+		return mQuery;
+	}
+	
+	public boolean isFiltering() {
+		return mFiltering;
+	}
+	
+	/**
+	 * Searches text from the given offset and returns the matches as sorted,
+	 * non-overlapping start/end pairs, or null if nothing matched.
+	 */
+	public int[] match(CharSequence text, int from) {
+		Scratch scratch = mScratch.get();
+		int count = 0;
+		int state = 0;
+		int length = text.length();
+		
+		if (mMatchLength.length > 1) {
+			for (int i = from; i < length; i++) {
+				state = mDelta[state * mClassCount + classOf(text.charAt(i))];
+				int matched = mMatchLength[state];
+				
+				if (matched > 0) {
+					count = addSpan(scratch, count, i + 1 - matched, i + 1);
+				}
+			}
+		}
+		
+		for (int i = 0; i < scratch.matchers.length; i++) {
+			Matcher m = scratch.matchers[i];
+			m.reset(text).region(from, length);
+			
+			while (m.find()) {
+				if (m.end() > m.start()) {
+					count = addSpan(scratch, count, m.start(), m.end());
+				}
+			}
+			
+			m.reset("");
+		}
+		
+		if (count == 0) {
+			return null;
+		}
+		
+		return merge(scratch.spans, count);
+	}
+	
+	private int classOf(char c) {
+		if (c < 128) {
+			return mAsciiClass[c];
+		}
+		
+		int i = Arrays.binarySearch(mOtherChars, c);
+		return (i >= 0) ? mOtherClass[i] : 0;
+	}
+	
+	/**
+	 * Builds the trie and turns it into a complete transition table, so
+	 * matching never follows failure links. Each state records the length
+	 * of the longest term ending there, which is all highlighting needs.
+	 */
+	private int[][] build(ArrayList<String> literals) {
+		int k = mClassCount;
+		int capacity = 1;
+		
+		for (int i = 0; i < literals.size(); i++) {
+			capacity += literals.get(i).length();
+		}
+		
+		int[] delta = new int[capacity * k];
+		int[] matchLength = new int[capacity];
+		int[] depth = new int[capacity];
+		int states = 1;
+		
+		Arrays.fill(delta, -1);
+		
+		for (int i = 0; i < literals.size(); i++) {
+			String term = literals.get(i);
+			int s = 0;
+			
+			for (int j = 0; j < term.length(); j++) {
+				int c = classOf(term.charAt(j));
+				
+				if (delta[s * k + c] < 0) {
+					depth[states] = depth[s] + 1;
+					delta[s * k + c] = states++;
+				}
+				
+				s = delta[s * k + c];
+			}
+			
+			matchLength[s] = term.length();
+		}
+		
+		int[] fail = new int[states];
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		
+		for (int c = 0; c < k; c++) {
+			int next = delta[c];
+			
+			if (next < 0) {
+				delta[c] = 0;
+			} else {
+				fail[next] = 0;
+				queue[tail++] = next;
+			}
+		}
+		
+		while (head < tail) {
+			int s = queue[head++];
+			
+			if (matchLength[fail[s]] > matchLength[s]) {
+				matchLength[s] = matchLength[fail[s]];
+			}
+			
+			for (int c = 0; c < k; c++) {
+				int next = delta[s * k + c];
+				
+				if (next < 0) {
+					delta[s * k + c] = delta[fail[s] * k + c];
+				} else {
+					fail[next] = delta[fail[s] * k + c];
+					queue[tail++] = next;
+				}
+			}
+		}
+		
+		int[] trimmed = new int[states * k];
+		System.arraycopy(delta, 0, trimmed, 0, trimmed.length);
+		int[] lengths = new int[states];
+		System.arraycopy(matchLength, 0, lengths, 0, states);
+		
+		return new int[][] { trimmed, lengths };
+	}
+	
+	private static int addSpan(Scratch scratch, int count, int start, int end) {
+		if (count + 2 > scratch.spans.length) {
+			int[] grown = new int[scratch.spans.length * 2];
+			System.arraycopy(scratch.spans, 0, grown, 0, count);
+			scratch.spans = grown;
+		}
+		
+		scratch.spans[count] = start;
+		scratch.spans[count + 1] = end;
+		return count + 2;
+	}
+	
+	/**
+	 * Sorts the raw spans by start and joins any that overlap or touch.
+	 */
+	private static int[] merge(int[] spans, int count) {
+		for (int i = 2; i < count; i += 2) {
+			int start = spans[i];
+			int end = spans[i + 1];
+			int j = i - 2;
+			
+			while (j >= 0 && spans[j] > start) {
+				spans[j + 2] = spans[j];
+				spans[j + 3] = spans[j + 1];
+				j -= 2;
+			}
+			
+			spans[j + 2] = start;
+			spans[j + 3] = end;
+		}
+		
+		int merged = 0;
+		
+		for (int i = 0; i < count; i += 2) {
+			if (merged > 0 && spans[i] <= spans[merged - 1]) {
+				if (spans[i + 1] > spans[merged - 1]) {
+					spans[merged - 1] = spans[i + 1];
+				}
+			} else {
+				spans[merged] = spans[i];
+				spans[merged + 1] = spans[i + 1];
+				merged += 2;
+			}
+		}
+		
+		int[] result = new int[merged];
+		System.arraycopy(spans, 0, result, 0, merged);
+		return result;
+	}
+	
+	private static void split(String query, ArrayList<String> literals, ArrayList<Pattern> patterns) {
+		int i = 0;
+		int length = query.length();
+		
+		while (i < length) {
+			char c = query.charAt(i);
+			
+			if (Character.isWhitespace(c)) {
+				i++;
+				continue;
+			}
+			
+			int end;
+			
+			if (c == '/' && (end = regexEnd(query, i + 1)) > i + 1) {
+				patterns.add(Pattern.compile(query.substring(i + 1, end), Pattern.CASE_INSENSITIVE));
+				i = end + 1;
+				continue;
+			}
+			
+			end = i;
+			
+			while (end < length && !Character.isWhitespace(query.charAt(end))) {
+				end++;
+			}
+			
+			literals.add(lowerAscii(query.substring(i, end)));
+			i = end;
+		}
+	}
+	
+	// a regex runs to the next slash that ends the query or a word
+	private static int regexEnd(String query, int from) {
+		for (int i = from; i < query.length(); i++) {
+			if (query.charAt(i) == '/' && query.charAt(i - 1) != '\\'
+					&& (i + 1 == query.length() || Character.isWhitespace(query.charAt(i + 1)))) {
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	private static String lowerAscii(String s) {
+		char[] c = s.toCharArray();
+		
+		for (int i = 0; i < c.length; i++) {
+			c[i] = (char) LogEntry.toLower(c[i]);
+		}
+		
+		return new String(c);
+	}
+}
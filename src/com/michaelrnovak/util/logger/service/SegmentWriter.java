@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Appends captured lines to a rolling set of segment files in one
+ * directory. A segment is closed once it reaches its size or age limit and
+ * the oldest segments are deleted to keep the directory under its quota.
+ * Writes are buffered; call {@link #flush()} when the input goes quiet.
+ */
+public class SegmentWriter {
+	
+	public static final String PREFIX = "capture-";
+	public static final String SUFFIX = ".log";
+	private static final long FLUSH_INTERVAL = 1000;
+	
+	private final File mDir;
+	private final long mMaxSegmentSize;
+	private final long mMaxSegmentAge;
+	private final long mQuota;
+	private final LineWriter mWriter = new LineWriter();
+	private final SimpleDateFormat mFormat = new SimpleDateFormat("yyyyMMdd-HHmmss");
+	private FileOutputStream mOut;
+	private volatile File mFile;
+	private long mOpened;
+	private long mFlushed;
+	private int mSequence = 0;
+	
+	public SegmentWriter(File dir, long maxSegmentSize, long maxSegmentAge, long quota) {
+		mDir = dir;
+		mMaxSegmentSize = maxSegmentSize;
+		mMaxSegmentAge = maxSegmentAge;
+		mQuota = quota;
+	}
+	
+	public void append(String line) throws IOException {
+		rotateIfDue();
+		mWriter.write(line, 0);
+	}
+	
+	/**
+	 * Appends a line that is still UTF-8 bytes, as the parser read it.
+	 */
+	public void append(byte[] b, int start, int end) throws IOException {
+		rotateIfDue();
+		mWriter.write(b, start, end);
+	}
+	
+	private void rotateIfDue() throws IOException {
+		long now = System.currentTimeMillis();
+		
+		if (mOut == null || mWriter.length() >= mMaxSegmentSize || now - mOpened >= mMaxSegmentAge) {
+			rotate(now);
+		}
+	}
+	
+	/**
+	 * Writes out buffered lines, at most once per second so a chatty log
+	 * does not turn into many small writes.
+	 */
+	public void flush() throws IOException {
+		long now = System.currentTimeMillis();
+		
+		if (mOut != null && now - mFlushed >= FLUSH_INTERVAL) {
+			mWriter.flush();
+			mFlushed = now;
+		}
+	}
+	
+	public void close() throws IOException {
+		if (mOut == null) {
+			return;
+		}
+		
+		try {
+			mWriter.flush();
+		} finally {
+			mWriter.release();
+			mOut.close();
+			mOut = null;
+			mFile = null;
+		}
+	}
+	
+	/**
+	 * Returns the segment being written, or null between segments.
+	 */
+	public File getFile() {
+		return mFile;
+	}
+	
+	private void rotate(long now) throws IOException {
+		close();
+		
+		if (!mDir.isDirectory() && !mDir.mkdirs()) {
+			throw new IOException("Cannot create " + mDir);
+		}
+		
+		String name = PREFIX + mFormat.format(new Date(now)) + "-" + (mSequence++) + SUFFIX;
+		
+		File file = new File(mDir, name);
+		mOut = new FileOutputStream(file);
+		mFile = file;
+		mWriter.open(mOut.getChannel());
+		mOpened = now;
+		mFlushed = now;
+		
+		enforceQuota();
+	}
+	
+	/**
+	 * Deletes the oldest segments until the directory fits in the quota,
+	 * never touching the one being written.
+	 */
+	private void enforceQuota() {
+		File[] files = mDir.listFiles();
+		
+		if (files == null) {
+			return;
+		}
+		
+		long total = 0;
+		int count = 0;
+		
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			
+			if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+				files[count++] = files[i];
+				total += files[i].length();
+			}
+		}
+		
+		// segment names start with their creation time, so name order is age order
+		Arrays.sort(files, 0, count);
+		
+		for (int i = 0; i < count - 1 && total > mQuota; i++) {
+			total -= files[i].length();
+			files[i].delete();
+		}
+	}
+}
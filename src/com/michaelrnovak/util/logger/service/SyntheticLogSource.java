@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Generates plausible brief-format log lines at a fixed rate, for driving
+ * the pipeline without a device or a recording.
+ */
+public class SyntheticLogSource implements LogSource {
+	
+	private static final String LEVELS = "VVDDDDIIIIIWWE";
+	private static final String[] TAGS = {
+		"ActivityManager", "dalvikvm", "WindowManager", "PackageManager",
+		"InputDispatcher", "ConnectivityService", "AudioFlinger", "GC"
+	};
+	private static final String[] WORDS = {
+		"starting", "done", "timeout", "connection", "refused", "wakelock",
+		"acquired", "released", "activity", "service", "window", "focus",
+		"bytes", "in", "ms", "for", "pid", "request", "complete", "error"
+	};
+	
+	private final int mRate;
+	private final long mLimit;
+	private final long mSeed;
+	private volatile Generator mStream;
+	private volatile boolean mClosed = false;
+	
+	/**
+	 * @param linesPerSecond how fast to produce lines
+	 * @param limit how many lines to produce, or 0 for no limit
+	 */
+	public SyntheticLogSource(int linesPerSecond, long limit, long seed) {
+		mRate = linesPerSecond;
+		mLimit = limit;
+		mSeed = seed;
+	}
+	
+	public InputStream open() {
+		Generator stream = new Generator();
+		mStream = stream;
+		
+		if (mClosed) {
+			stream.close();
+		}
+		
+		return stream;
+	}
+	
+	public void close() {
+		mClosed = true;
+		Generator stream = mStream;
+		
+		if (stream != null) {
+			stream.close();
+		}
+	}
+	
+	private class Generator extends PacedLineStream {
+		private final Random mRandom = new Random(mSeed);
+		private final StringBuilder mText = new StringBuilder(128);
+		private byte[] mBytes = new byte[128];
+		private long mCount = 0;
+		
+		@Override
+		protected long nextLine() {
+			if (mLimit > 0 && mCount >= mLimit) {
+				return -1;
+			}
+			
+			mText.setLength(0);
+			mText.append(LEVELS.charAt(mRandom.nextInt(LEVELS.length()))).append('/');
+			mText.append(TAGS[mRandom.nextInt(TAGS.length)]).append("( ");
+			mText.append(100 + mRandom.nextInt(900)).append("): #").append(mCount);
+			
+			int words = 3 + mRandom.nextInt(12);
+			
+			for (int i = 0; i < words; i++) {
+				mText.append(' ').append(WORDS[mRandom.nextInt(WORDS.length)]);
+			}
+			
+			// the text is ASCII, so chars map straight to bytes
+			int length = mText.length();
+			
+			if (length > mBytes.length) {
+				mBytes = new byte[length * 2];
+			}
+			
+			for (int i = 0; i < length; i++) {
+				mBytes[i] = (byte) mText.charAt(i);
+			}
+			
+			setLine(mBytes, 0, length);
+			
+			return (long) (mCount++ * 1000.0 / mRate);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+/**
+ * Maps log tags to small integer ids, ignoring ASCII case, so that tag
+ * matching is an int compare. Lookups hash the tag bytes in place with an
+ * open-addressing table, so a tag that has been seen before costs no
+ * allocation. Ids are never reused.
+ */
+public class TagDictionary {
+	
+	private static final int INITIAL_CAPACITY = 256;
+	
+	private int[] mTable = new int[INITIAL_CAPACITY];
+	private int[] mHashes = new int[INITIAL_CAPACITY / 2];
+	private int[] mOffsets = new int[INITIAL_CAPACITY / 2];
+	private int[] mLengths = new int[INITIAL_CAPACITY / 2];
+	private String[] mNames = new String[INITIAL_CAPACITY / 2];
+	private byte[] mBytes = new byte[INITIAL_CAPACITY * 16];
+	private int mByteCount = 0;
+	private int mSize = 0;
+	
+	/**
+	 * Returns the id of the tag in b[start, end), adding it if needed.
+	 */
+	public synchronized int intern(byte[] b, int start, int end) {
+		int hash = hash(b, start, end);
+		int slot = slotOf(hash, b, start, end);
+		
+		if (mTable[slot] != 0) {
+			return mTable[slot] - 1;
+		}
+		
+		return add(hash, slot, b, start, end);
+	}
+	
+	public int intern(String tag) {
+		byte[] b = IndexedLogWriter.utf8(tag);
+		return intern(b, 0, b.length);
+	}
+	
+	/**
+	 * Returns the id of a tag that has been seen, or -1, without adding it.
+	 */
+	public synchronized int find(String tag) {
+		byte[] b = IndexedLogWriter.utf8(tag);
+		int slot = slotOf(hash(b, 0, b.length), b, 0, b.length);
+		
+		return mTable[slot] - 1;
+	}
+	
+	/**
+	 * Returns the tag as it was first seen.
+	 */
+	public synchronized String getName(int id) {
+		if (mNames[id] == null) {
+			mNames[id] = LogEntry.decode(mBytes, mOffsets[id], mLengths[id]);
+		}
+		
+		return mNames[id];
+	}
+	
+	public synchronized int size() {
+		return mSize;
+	}
+	
+	// the slot holding the tag, or the empty slot where it would go
+	private int slotOf(int hash, byte[] b, int start, int end) {
+		int mask = mTable.length - 1;
+		int slot = hash & mask;
+		
+		while (mTable[slot] != 0) {
+			int id = mTable[slot] - 1;
+			
+			if (mHashes[id] == hash && matches(id, b, start, end)) {
+				break;
+			}
+			
+			slot = (slot + 1) & mask;
+		}
+		
+		return slot;
+	}
+	
+	private int add(int hash, int slot, byte[] b, int start, int end) {
+		int id = mSize++;
+		int len = end - start;
+		
+		if (id == mHashes.length) {
+			mHashes = grow(mHashes);
+			mOffsets = grow(mOffsets);
+			mLengths = grow(mLengths);
+			
+			String[] names = new String[mNames.length * 2];
+			System.arraycopy(mNames, 0, names, 0, mNames.length);
+			mNames = names;
+		}
+		
+		if (mByteCount + len > mBytes.length) {
+			byte[] bytes = new byte[Math.max(mBytes.length * 2, mByteCount + len)];
+			System.arraycopy(mBytes, 0, bytes, 0, mByteCount);
+			mBytes = bytes;
+		}
+		
+		System.arraycopy(b, start, mBytes, mByteCount, len);
+		mHashes[id] = hash;
+		mOffsets[id] = mByteCount;
+		mLengths[id] = len;
+		mByteCount += len;
+		mTable[slot] = id + 1;
+		
+		// keep the table at most half full
+		if (mSize * 2 > mTable.length) {
+			rehash();
+		}
+		
+		return id;
+	}
+	
+	private void rehash() {
+		int[] table = new int[mTable.length * 2];
+		int mask = table.length - 1;
+		
+		for (int id = 0; id < mSize; id++) {
+			int slot = mHashes[id] & mask;
+			
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			
+			table[slot] = id + 1;
+		}
+		
+		mTable = table;
+	}
+	
+	private boolean matches(int id, byte[] b, int start, int end) {
+		if (mLengths[id] != end - start) {
+			return false;
+		}
+		
+		int offset = mOffsets[id];
+		
+		for (int i = start; i < end; i++) {
+			if (LogEntry.toLower(b[i] & 0xff) != LogEntry.toLower(mBytes[offset++] & 0xff)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	// FNV-1a over the lower-cased bytes
+	private static int hash(byte[] b, int start, int end) {
+		int h = 0x811c9dc5;
+		
+		for (int i = start; i < end; i++) {
+			h ^= LogEntry.toLower(b[i] & 0xff);
+			h *= 0x01000193;
+		}
+		
+		return h ^ (h >>> 16);
+	}
+	
+	private static int[] grow(int[] array) {
+		int[] grown = new int[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.ArrayList;
+
+/**
+ * Immutable set of rules that start an incident capture. A rule is either
+ * plain text, matched anywhere in the line, or <code>tag/L:text</code>,
+ * which also requires the tag (ignoring case) and a level of at least L.
+ * The tag, the level and the text may each be left out, as in
+ * <code>AndroidRuntime/E:</code> or <code>/F:</code>.
+ */
+public class TriggerRules {
+	
+	public static final String[] DEFAULTS = {"AndroidRuntime/E:FATAL EXCEPTION", "ActivityManager/E:ANR in"};
+	
+	private static final String PRIORITIES = "VDIWEF";
+	
+	private final String[] mRules;
+	private final byte[][] mTexts;
+	private final String[] mTags;
+	private final int[] mTagIds;
+	private final int[] mLevels;
+	
+	/**
+	 * @param rules the rules, blank ones are ignored
+	 * @param dictionary the dictionary entries are interned in, or null to
+	 *        compare tag bytes
+	 */
+	public TriggerRules(String[] rules, TagDictionary dictionary) {
+		ArrayList<String> list = new ArrayList<String>();
+		
+		for (int i = 0; i < rules.length; i++) {
+			if (rules[i] != null && rules[i].trim().length() > 0) {
+				list.add(rules[i].trim());
+			}
+		}
+		
+		int n = list.size();
+		mRules = list.toArray(new String[n]);
+		mTexts = new byte[n][];
+		mTags = new String[n];
+		mTagIds = new int[n];
+		mLevels = new int[n];
+		
+		for (int i = 0; i < n; i++) {
+			String rule = mRules[i];
+			int colon = rule.indexOf(':');
+			String head = (colon >= 0) ? rule.substring(0, colon) : null;
+			
+			mTagIds[i] = -1;
+			
+			if (head == null || !isHead(head)) {
+				mTexts[i] = IndexedLogWriter.utf8(rule);
+				continue;
+			}
+			
+			String text = rule.substring(colon + 1).trim();
+			int slash = head.indexOf('/');
+			String tag = (slash >= 0) ? head.substring(0, slash) : head;
+			
+			mTexts[i] = (text.length() > 0) ? IndexedLogWriter.utf8(text) : null;
+			
+			if (slash >= 0) {
+				mLevels[i] = rank(head.charAt(slash + 1));
+			}
+			
+			if (tag.length() > 0) {
+				mTags[i] = tag;
+				mTagIds[i] = (dictionary != null) ? dictionary.intern(tag) : -1;
+			}
+		}
+	}
+	
+	/**
+	 * Parses rules given one per line.
+	 */
+	public static String[] split(String rules) {
+		return (rules == null) ? new String[0] : rules.split("\n");
+	}
+	
+	/**
+	 * Returns the first rule the entry's line satisfies, or null. Text is
+	 * searched for in the line's bytes, so no String is made for it.
+	 */
+	public String match(LogEntry entry) {
+		for (int i = 0; i < mRules.length; i++) {
+			if (mLevels[i] > 0 && rank(entry.level) < mLevels[i]) {
+				continue;
+			}
+			
+			if (mTags[i] != null && !tagMatches(entry, i)) {
+				continue;
+			}
+			
+			if (mTexts[i] != null && !contains(entry.buffer, entry.start, entry.end, mTexts[i])) {
+				continue;
+			}
+			
+			return mRules[i];
+		}
+		
+		return null;
+	}
+	
+	public boolean isEmpty() {
+		return mRules.length == 0;
+	}
+	
+	/**
+	 * Returns the lowest level a line needs to satisfy any rule, V if some
+	 * rule takes every level, or 0 if there are no rules.
+	 */
+	public char getLowestLevel() {
+		if (mRules.length == 0) {
+			return 0;
+		}
+		
+		int lowest = PRIORITIES.length();
+		
+		for (int i = 0; i < mLevels.length; i++) {
+			lowest = Math.min(lowest, Math.max(mLevels[i], 1));
+		}
+		
+		return PRIORITIES.charAt(lowest - 1);
+	}
+	
+	public String[] getRules() {
+		return mRules.clone();
+	}
+	
+	private boolean tagMatches(LogEntry entry, int rule) {
+		if (mTagIds[rule] >= 0 && entry.tagId >= 0) {
+			return entry.tagId == mTagIds[rule];
+		}
+		
+		return entry.tagEquals(mTags[rule]);
+	}
+	
+	private static boolean contains(byte[] b, int start, int end, byte[] text) {
+		int last = end - text.length;
+		
+		for (int i = start; i <= last; i++) {
+			if (b[i] != text[0]) {
+				continue;
+			}
+			
+			int j = 1;
+			
+			while (j < text.length && b[i + j] == text[j]) {
+				j++;
+			}
+			
+			if (j == text.length) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	// "tag", "tag/L" or "/L", with no spaces, is a rule head; anything else is text
+	private static boolean isHead(String head) {
+		if (head.indexOf(' ') >= 0 || head.indexOf('\t') >= 0) {
+			return false;
+		}
+		
+		int slash = head.indexOf('/');
+		
+		if (slash < 0) {
+			return head.length() > 0;
+		}
+		
+		return slash == head.length() - 2 && rank(head.charAt(slash + 1)) > 0;
+	}
+	
+	// 1 for V through 6 for F, 0 if the level is unknown
+	private static int rank(char level) {
+		if (level == 'A') {
+			level = 'F';
+		}
+		
+		return PRIORITIES.indexOf(Character.toUpperCase(level)) + 1;
+	}
+}
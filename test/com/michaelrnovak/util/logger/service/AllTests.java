@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Runs the plain-JVM tests; see test/run.sh. Exits with status 1 if any
+ * test failed.
+ */
+public class AllTests {
+	
+	private static final Class<?>[] TESTS = {
+		ChunkQueueTest.class,
+		IncidentRecorderTest.class,
+		IndexedLogTest.class,
+		KernelLogSourceTest.class,
+		LogExporterTest.class,
+		LogcatParserTest.class,
+		LogMergerTest.class,
+		RingScrollbackTest.class,
+		PackedScrollbackTest.class,
+		RepeatCollapserTest.class,
+		SearchMatcherTest.class,
+		TriggerRulesTest.class
+	};
+	
+	public static void main(String[] args) throws Exception {
+		int run = 0;
+		int failed = 0;
+		
+		for (Class<?> test : TESTS) {
+			for (Method method : test.getMethods()) {
+				if (!method.getName().startsWith("test") || method.getParameterTypes().length != 0
+						|| Modifier.isStatic(method.getModifiers())) {
+					continue;
+				}
+				
+				run++;
+				
+				try {
+					method.invoke(test.getConstructor().newInstance());
+				} catch (InvocationTargetException e) {
+					failed++;
+					System.out.println("FAIL " + test.getSimpleName() + "." + method.getName());
+					e.getCause().printStackTrace(System.out);
+				}
+			}
+		}
+		
+		System.out.println(run + " tests, " + failed + " failed");
+		
+		if (failed > 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChunkQueueTest extends TestCase {
+	
+	private int mLine = 0;
+	
+	public void testDropOldest() {
+		ChunkQueue queue = new ChunkQueue(3, new PipelineStats());
+		queue.setPolicy(ChunkQueue.POLICY_DROP_OLDEST);
+		
+		for (int i = 0; i < 5; i++) {
+			queue.offer(chunk(10));
+		}
+		
+		assertEquals("size", 3, queue.size());
+		assertEquals("dropped", 20, queue.getDropped());
+		
+		List<LineChunk> chunks = drain(queue);
+		assertEquals("first kept", "line 20", chunks.get(0).lines[0]);
+		assertEquals("gap before the first kept", 20, chunks.get(0).skipped);
+		assertEquals("no gap", 0, chunks.get(1).skipped);
+		assertEquals("in order", "line 30", chunks.get(1).lines[0]);
+		assertEquals("in order", "line 40", chunks.get(2).lines[0]);
+	}
+	
+	public void testDroppedResetIsCarried() {
+		ChunkQueue queue = new ChunkQueue(2, new PipelineStats());
+		queue.reset();
+		queue.offer(chunk(4));
+		queue.offer(chunk(4));
+		
+		List<LineChunk> chunks = drain(queue);
+		assertEquals("chunks", 2, chunks.size());
+		assertTrue("reset carried", chunks.get(0).reset);
+		assertEquals("lines before the reset are not counted", 0, chunks.get(0).skipped);
+		assertEquals("dropped", 0, queue.getDropped());
+	}
+	
+	public void testSample() {
+		ChunkQueue queue = new ChunkQueue(4, new PipelineStats());
+		queue.setPolicy(ChunkQueue.POLICY_SAMPLE);
+		
+		// below half the capacity chunks go through whole
+		queue.offer(chunk(16));
+		queue.offer(chunk(16));
+		queue.offer(chunk(16));
+		
+		List<LineChunk> chunks = drain(queue);
+		assertEquals("whole", 16, chunks.get(1).count);
+		
+		LineChunk thinned = chunks.get(2);
+		assertEquals("every eighth line", 2, thinned.count);
+		assertEquals("first kept", "line 32", thinned.lines[0]);
+		assertEquals("second kept", "line 40", thinned.lines[1]);
+		assertEquals("rest cleared", null, thinned.lines[2]);
+		assertEquals("skipped", 14, thinned.skipped);
+		assertEquals("dropped", 14, queue.getDropped());
+	}
+	
+	public void testSampleThenDrop() {
+		ChunkQueue queue = new ChunkQueue(2, new PipelineStats());
+		queue.setPolicy(ChunkQueue.POLICY_SAMPLE);
+		
+		queue.offer(chunk(8));
+		queue.offer(chunk(8));
+		queue.offer(chunk(8));
+		
+		// the later chunks were sampled to 1 line each, then the first was dropped whole
+		List<LineChunk> chunks = drain(queue);
+		assertEquals("chunks", 2, chunks.size());
+		assertEquals("first kept", "line 8", chunks.get(0).lines[0]);
+		assertEquals("sampled", 1, chunks.get(0).count);
+		assertEquals("dropped chunk and sampled lines", 8 + 7, chunks.get(0).skipped);
+		assertEquals("last kept", "line 16", chunks.get(1).lines[0]);
+		assertEquals("last skipped", 7, chunks.get(1).skipped);
+		assertEquals("dropped", 8 + 7 + 7, queue.getDropped());
+	}
+	
+	public void testBlock() throws Exception {
+		final ChunkQueue queue = new ChunkQueue(2, new PipelineStats());
+		queue.setPolicy(ChunkQueue.POLICY_BLOCK);
+		queue.offer(chunk(1));
+		queue.offer(chunk(1));
+		
+		long start = System.currentTimeMillis();
+		queue.awaitSpace(50);
+		assertTrue("waited for the timeout", System.currentTimeMillis() - start >= 40);
+		
+		Thread consumer = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				
+				queue.poll().recycle();
+			}
+		};
+		
+		consumer.start();
+		queue.awaitSpace(10 * 1000);
+		consumer.join();
+		
+		assertEquals("room made", 1, queue.size());
+		assertTrue("woken by the consumer", System.currentTimeMillis() - start < 5 * 1000);
+		
+		queue.offer(chunk(1));
+		assertEquals("nothing dropped", 0, queue.getDropped());
+		
+		// once the wait runs out the offer drops as DROP_OLDEST would
+		queue.awaitSpace(10);
+		queue.offer(chunk(1));
+		assertEquals("dropped", 1, queue.getDropped());
+		
+		List<LineChunk> chunks = drain(queue);
+		assertEquals("in order", "line 2", chunks.get(0).lines[0]);
+		assertEquals("gap", 1, chunks.get(0).skipped);
+		assertEquals("in order", "line 3", chunks.get(1).lines[0]);
+	}
+	
+	public void testSignalOncePerBatch() {
+		ChunkQueue queue = new ChunkQueue(4, new PipelineStats());
+		
+		assertTrue("first offer signals", queue.offer(chunk(1)));
+		assertTrue("second waits for the drain", !queue.offer(chunk(1)));
+		
+		drain(queue);
+		assertTrue("signals after the drain", queue.offer(chunk(1)));
+		
+		queue.cancelSignal();
+		assertTrue("signals after a cancel", queue.offer(chunk(1)));
+	}
+	
+	private LineChunk chunk(int lines) {
+		LineChunk chunk = LineChunk.obtain();
+		
+		for (int i = 0; i < lines; i++) {
+			chunk.lines[chunk.count++] = "line " + (mLine++);
+		}
+		
+		return chunk;
+	}
+	
+	// the chunks are not recycled, so their lines stay readable
+	private static List<LineChunk> drain(ChunkQueue queue) {
+		ArrayList<LineChunk> chunks = new ArrayList<LineChunk>();
+		LineChunk chunk;
+		
+		while ((chunk = queue.poll()) != null) {
+			chunks.add(chunk);
+		}
+		
+		return chunks;
+	}
+}
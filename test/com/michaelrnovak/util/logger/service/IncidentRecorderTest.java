@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class IncidentRecorderTest extends TestCase {
+	
+	private static final long LONG = 60 * 1000;
+	private static final long WAIT = 10 * 1000;
+	
+	private final TriggerRules mRules = new TriggerRules(TriggerRules.DEFAULTS, null);
+	private final ArrayList<File> mFiles = new ArrayList<File>();
+	private final File mDir = new File(System.getProperty("java.io.tmpdir"), "incidents-" + System.nanoTime());
+	
+	private final IncidentRecorder.Listener mListener = new IncidentRecorder.Listener() {
+		public void onIncident(File file) {
+			synchronized (mFiles) {
+				mFiles.add(file);
+				mFiles.notifyAll();
+			}
+		}
+		
+		public void onIncidentFailed(IOException e) {
+			fail(e.toString());
+		}
+	};
+	
+	public void testCrashWithPreAndPostRoll() throws Exception {
+		IncidentRecorder recorder = new IncidentRecorder(mDir, 100, LONG, 200, mListener);
+		List<String> records = fixtureRecords("brief.log");
+		
+		try {
+			add(recorder, records);
+			
+			// the post-roll timer closes the incident even though no more lines come
+			List<String> lines = incident(0);
+			assertEquals("header", "--- Incident: AndroidRuntime/E:FATAL EXCEPTION at ", lines.get(0).substring(0, 50));
+			assertEquals("every line", records, lines.subList(1, lines.size()));
+		} finally {
+			recorder.shutdown();
+			delete();
+		}
+	}
+	
+	public void testPreRollCutByTime() throws Exception {
+		IncidentRecorder recorder = new IncidentRecorder(mDir, 100, 50, LONG, mListener);
+		List<String> records = fixtureRecords("brief.log");
+		
+		try {
+			add(recorder, records.subList(0, 4));
+			Thread.sleep(150);
+			add(recorder, records.subList(4, 10));
+			recorder.shutdown();
+			
+			// the lines from before the pause are outside the pre-roll window
+			assertEquals("window", records.subList(4, 10), body(incident(0)));
+		} finally {
+			recorder.shutdown();
+			delete();
+		}
+	}
+	
+	public void testPreRollCutByCapacity() throws Exception {
+		IncidentRecorder recorder = new IncidentRecorder(mDir, 3, LONG, LONG, mListener);
+		List<String> records = fixtureRecords("brief.log");
+		
+		try {
+			// the crash is record 7, so only 5 through 7 are still held
+			add(recorder, records.subList(0, 9));
+			recorder.shutdown();
+			
+			assertEquals("capacity", records.subList(5, 9), body(incident(0)));
+		} finally {
+			recorder.shutdown();
+			delete();
+		}
+	}
+	
+	public void testPostRollLimit() throws Exception {
+		IncidentRecorder recorder = new IncidentRecorder(mDir, 2, LONG, LONG, mListener);
+		List<String> records = fixtureRecords("brief.log");
+		
+		try {
+			add(recorder, records.subList(0, 8));
+			
+			// an incident keeps at most four times the pre-roll capacity
+			for (int i = 0; i < 10; i++) {
+				add(recorder, records.subList(8, 9));
+			}
+			
+			recorder.shutdown();
+			
+			List<String> lines = incident(0);
+			assertEquals("lines", 1 + 8 + 1, lines.size());
+			assertEquals("lost", "--- 4 more lines not kept ---", lines.get(lines.size() - 1));
+		} finally {
+			recorder.shutdown();
+			delete();
+		}
+	}
+	
+	public void testOverlappingAnrs() throws Exception {
+		IncidentRecorder recorder = new IncidentRecorder(mDir, 100, LONG, 300, mListener);
+		List<String> records = fixtureRecords("time.log");
+		List<String> anr = records.subList(0, 9);
+		
+		try {
+			add(recorder, anr);
+			
+			// a second ANR inside the post-roll is part of the first incident
+			add(recorder, anr.subList(7, 8));
+			List<String> first = body(incident(0));
+			
+			assertEquals("first", 9 + 1, first.size());
+			assertEquals("repeat kept", records.get(7), first.get(9));
+			
+			// one after it closed starts its own, with a pre-roll that overlaps the first
+			add(recorder, anr.subList(7, 8));
+			recorder.shutdown();
+			
+			List<String> second = body(incident(1));
+			assertEquals("second", 9 + 2, second.size());
+			assertEquals("pre-roll overlaps", first, second.subList(0, 10));
+			assertEquals("trigger last", records.get(7), second.get(10));
+			assertTrue("own file", !mFiles.get(0).equals(mFiles.get(1)));
+		} finally {
+			recorder.shutdown();
+			delete();
+		}
+	}
+	
+	private void add(IncidentRecorder recorder, List<String> records) {
+		LogEntry entry = new LogEntry();
+		
+		for (String record : records) {
+			LogcatParser.parse(record, entry);
+			recorder.add(entry, mRules.match(entry));
+		}
+	}
+	
+	// waits for the n-th incident file and returns its lines
+	private List<String> incident(int n) throws Exception {
+		long deadline = System.currentTimeMillis() + WAIT;
+		File file;
+		
+		synchronized (mFiles) {
+			while (mFiles.size() <= n) {
+				long remaining = deadline - System.currentTimeMillis();
+				
+				if (remaining <= 0) {
+					fail("no incident " + n);
+				}
+				
+				mFiles.wait(remaining);
+			}
+			
+			file = mFiles.get(n);
+		}
+		
+		assertTrue("name", file.getName().startsWith(IncidentRecorder.PREFIX) && file.getName().endsWith(IncidentRecorder.SUFFIX));
+		
+		return Arrays.asList(new String(readBytes(file), "UTF-8").split("\n"));
+	}
+	
+	// the lines after the header
+	private static List<String> body(List<String> lines) {
+		return lines.subList(1, lines.size());
+	}
+	
+	private void delete() {
+		File[] files = mDir.listFiles();
+		
+		for (int i = 0; files != null && i < files.length; i++) {
+			files[i].delete();
+		}
+		
+		mDir.delete();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class IndexedLogTest extends TestCase {
+	
+	public void testQueryMatchesScan() throws Exception {
+		File file = export("threadtime.log");
+		List<String> records = fixtureRecords("threadtime.log");
+		IndexedLogReader reader = new IndexedLogReader(file);
+		final List<String> found = new ArrayList<String>();
+		long from = LogcatParser.parseTimestamp("05-02 17:40:11.300".getBytes(), 0, 18);
+		long to = LogcatParser.parseTimestamp("05-02 17:40:13.200".getBytes(), 0, 18);
+		
+		try {
+			assertEquals("count", records.size(), reader.getCount());
+			reader.query(null, 'W', from, to, new IndexedLogReader.Callback() {
+				public boolean onRecord(long timestamp, char level, String tag, String line) {
+					found.add(line);
+					return true;
+				}
+			});
+		} finally {
+			reader.close();
+		}
+		
+		List<String> expected = new ArrayList<String>();
+		LogEntry entry = new LogEntry();
+		
+		for (String record : records) {
+			LogcatParser.parse(record, entry);
+			
+			if ("WEF".indexOf(entry.level) >= 0 && entry.level != 0 && entry.timestamp >= from && entry.timestamp <= to) {
+				expected.add(record);
+			}
+		}
+		
+		assertEquals("found", expected, found);
+		assertTrue("something found", found.size() > 0);
+		file.delete();
+	}
+	
+	public void testBriefRecordsHaveNoTime() throws Exception {
+		File file = export("brief.log");
+		IndexedLogReader reader = new IndexedLogReader(file);
+		
+		try {
+			assertEquals("tag only", 3, reader.query("AndroidRuntime", (char) 0, -1, -1, count()));
+			assertEquals("timed", 0, reader.query(null, (char) 0, 0, Long.MAX_VALUE, count()));
+		} finally {
+			reader.close();
+		}
+		
+		file.delete();
+	}
+	
+	public void testSourceReadsBackRecords() throws Exception {
+		File file = export("threadtime.log");
+		IndexedLogSource source = new IndexedLogSource(file, 'E');
+		InputStream in = source.open();
+		LogcatParser parser = new LogcatParser(in);
+		LogEntry entry = new LogEntry();
+		List<String> read = new ArrayList<String>();
+		
+		while (parser.next(entry)) {
+			read.add(entry.getLine());
+		}
+		
+		source.close();
+		
+		List<String> records = fixtureRecords("threadtime.log");
+		List<String> expected = new ArrayList<String>();
+		expected.add(records.get(4));
+		expected.add(records.get(9));
+		expected.add(records.get(10));
+		assertEquals("records", expected, read);
+		file.delete();
+	}
+	
+	private static File export(String fixture) throws Exception {
+		File file = File.createTempFile("fixture", IndexedLogSource.SUFFIX);
+		new LogExporter().export(fixtureScrollback(fixture).cursor(), LogFilter.ALL, file, null);
+		return file;
+	}
+	
+	private static IndexedLogReader.Callback count() {
+		return new IndexedLogReader.Callback() {
+			public boolean onRecord(long timestamp, char level, String tag, String line) {
+				return true;
+			}
+		};
+	}
+}
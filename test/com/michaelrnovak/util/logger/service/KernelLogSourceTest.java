@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+public class KernelLogSourceTest extends TestCase {
+	
+	private static final long BOOT = time(3, 14, 9, 0, 0, 0);
+	
+	public void testTimestamp() {
+		assertEquals("padded", 1204110, KernelLogSource.timestamp("<4>[    1.204110] mmc0: x"));
+		assertEquals("no priority", 12880341, KernelLogSource.timestamp("[   12.880341] binder: x"));
+		assertEquals("short fraction", 12346500000L, KernelLogSource.timestamp("[12346.5] x"));
+		assertEquals("long fraction", 1000001, KernelLogSource.timestamp("[1.0000019] x"));
+		assertEquals("whole seconds", 7000000, KernelLogSource.timestamp("[7] x"));
+		assertEquals("none", -1, KernelLogSource.timestamp("<4>continuation"));
+		assertEquals("empty", -1, KernelLogSource.timestamp("[ ] x"));
+		assertEquals("not a number", -1, KernelLogSource.timestamp("[ 1.2a] x"));
+		assertEquals("too far in", -1, KernelLogSource.timestamp("------------[ cut here ]------------"));
+		assertEquals("unclosed", -1, KernelLogSource.timestamp("[    1.204110 x"));
+	}
+	
+	public void testProcKmsg() throws Exception {
+		List<LogEntry> entries = read("kmsg.log");
+		List<String> records = fixtureRecords("kmsg.log");
+		
+		assertEquals("records", records.size(), entries.size());
+		
+		LogEntry entry = entries.get(0);
+		assertEquals("format", LogEntry.FORMAT_TIME, entry.format);
+		assertEquals("tag", KernelLogSource.TAG, entry.getTag());
+		assertEquals("level", 'I', entry.level);
+		assertEquals("boot time", BOOT, entry.timestamp);
+		assertEquals("message", "Booting Linux on physical CPU 0x0", message(entry));
+		
+		assertEquals("notice", 'I', entries.get(1).level);
+		assertEquals("debug", 'D', entries.get(3).level);
+		assertEquals("warning", 'W', entries.get(4).level);
+		assertEquals("error", 'E', entries.get(5).level);
+		assertEquals("emergency", 'F', entries.get(6).level);
+		assertEquals("ms dropped", BOOT + 512, entries.get(3).timestamp);
+		assertEquals("hours up", BOOT + 12345678, entries.get(7).timestamp);
+		
+		// a line without a stamp keeps its priority and is put at boot
+		assertEquals("untimed level", 'W', entries.get(8).level);
+		assertEquals("untimed time", BOOT, entries.get(8).timestamp);
+		assertEquals("untimed message", "continuation without a timestamp", message(entries.get(8)));
+		
+		// the facility in the high bits is ignored
+		assertEquals("facility", 'W', entries.get(9).level);
+		assertEquals("facility time", BOOT + 12346500, entries.get(9).timestamp);
+		assertEquals("facility message", "facility and priority, fraction of one digit", message(entries.get(9)));
+	}
+	
+	public void testDmesgTail() throws Exception {
+		List<String> dump = fixtureRecords("dmesg.log");
+		KernelLogSource.DmesgTail tail = new KernelLogSource.DmesgTail();
+		
+		// the first dump is passed on whole, lines without a stamp too
+		assertEquals("first", dump, read(tail, dump));
+		assertEquals("again", new ArrayList<String>(), read(tail, dump));
+		
+		// a line with the same stamp as the last one is new by its position
+		ArrayList<String> grown = new ArrayList<String>(dump);
+		grown.add("[  240.004150] lowmemorykiller: Killing 'com.example.other' (303), adj 15,");
+		grown.add("[  240.100000] binder: 303: binder_alloc_buf failed");
+		assertEquals("grown", grown.subList(dump.size(), grown.size()), read(tail, grown));
+		
+		// once the ring wraps, the oldest lines are gone from the dump; nothing is repeated
+		List<String> wrapped = new ArrayList<String>(grown.subList(6, grown.size()));
+		wrapped.add("continuation without a stamp");
+		wrapped.add("[  300.000000] wlan: WLAN_STATUS_DISCONNECTED");
+		assertEquals("wrapped", wrapped.subList(wrapped.size() - 1, wrapped.size()), read(tail, wrapped));
+	}
+	
+	public void testDmesgSameStamp() throws Exception {
+		KernelLogSource.DmesgTail tail = new KernelLogSource.DmesgTail();
+		ArrayList<String> dump = new ArrayList<String>();
+		dump.add("[   12.880341] binder: release 302:302 transaction 14612 in, still active");
+		read(tail, dump);
+		
+		// the next dump has more lines with the last stamp than were seen
+		dump.add("[   12.880341] binder: send failed reply for transaction 14612 to 302:302");
+		dump.add("[   12.880341] binder: 302:302 transaction failed 29189");
+		assertEquals("same stamp", dump.subList(1, 3), read(tail, dump));
+		assertEquals("no repeat", new ArrayList<String>(), read(tail, dump));
+	}
+	
+	private static List<LogEntry> read(String fixture) throws Exception {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2021, Calendar.MARCH, 14, 9, 0, 0);
+		
+		File file = new File(System.getProperty("fixtures", "test/fixtures"), fixture);
+		KernelLogSource source = new KernelLogSource(file.getPath(), calendar.getTimeInMillis());
+		LogcatParser parser = new LogcatParser(source.open());
+		ArrayList<LogEntry> entries = new ArrayList<LogEntry>();
+		LogEntry entry = new LogEntry();
+		
+		try {
+			while (parser.next(entry)) {
+				entry.buffer = entry.buffer.clone();
+				entries.add(entry);
+				entry = new LogEntry();
+			}
+		} finally {
+			source.close();
+		}
+		
+		return entries;
+	}
+	
+	private static List<String> read(KernelLogSource.DmesgTail tail, List<String> dump) throws Exception {
+		StringBuilder text = new StringBuilder();
+		
+		for (String line : dump) {
+			text.append(line).append('\n');
+		}
+		
+		ArrayList<String> lines = new ArrayList<String>();
+		tail.read(new BufferedReader(new StringReader(text.toString())), lines);
+		return lines;
+	}
+	
+	private static String message(LogEntry entry) {
+		return LogEntry.decode(entry.buffer, entry.msgStart, entry.msgEnd - entry.msgStart);
+	}
+}
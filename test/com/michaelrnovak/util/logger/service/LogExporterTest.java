@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class LogExporterTest extends TestCase {
+	
+	public void testText() throws Exception {
+		List<String> records = fixtureRecords("threadtime.log");
+		File file = File.createTempFile("export", ".log");
+		
+		try {
+			int written = new LogExporter().export(fixtureScrollback("threadtime.log").cursor(), LogFilter.ALL, file, null);
+			
+			assertEquals("written", records.size(), written);
+			assertEquals("lines", records, lines(readBytes(file)));
+		} finally {
+			file.delete();
+		}
+	}
+	
+	public void testFilter() throws Exception {
+		List<String> expected = new ArrayList<String>();
+		LogFilter filter = new LogFilter((char) 0, "ActivityManager");
+		LogEntry entry = new LogEntry();
+		
+		for (String record : fixtureRecords("time.log")) {
+			LogcatParser.parse(record, entry);
+			
+			if (filter.accept(entry)) {
+				expected.add(record);
+			}
+		}
+		
+		File file = File.createTempFile("export", ".log");
+		
+		try {
+			int written = new LogExporter().export(fixtureScrollback("time.log").cursor(), filter, file, null);
+			
+			assertTrue("some lines match", expected.size() > 0);
+			assertEquals("written", expected.size(), written);
+			assertEquals("lines", expected, lines(readBytes(file)));
+		} finally {
+			file.delete();
+		}
+	}
+	
+	public void testGzip() throws Exception {
+		List<String> records = fixtureRecords("brief.log");
+		File file = File.createTempFile("export", ".log.gz");
+		
+		try {
+			new LogExporter().export(fixtureScrollback("brief.log").cursor(), LogFilter.ALL, file, null);
+			
+			InputStream in = new GZIPInputStream(new FileInputStream(file));
+			
+			try {
+				assertEquals("lines", records, lines(read(in)));
+			} finally {
+				in.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	public void testZipSplitsBuffers() throws Exception {
+		PackedScrollback scrollback = new PackedScrollback(16, 4096, new TagDictionary());
+		scrollback.add("[main] I/ActivityManager(   61): Start proc");
+		scrollback.add("[radio] D/RILJ    (  120): [0042]> SIGNAL_STRENGTH");
+		scrollback.add("[main] W/PackageManager(   61): Unknown permission");
+		scrollback.add("[radio] D/RILJ    (  120): [0043]< SIGNAL_STRENGTH");
+		
+		File file = File.createTempFile("export", ".zip");
+		int written = new LogExporter().export(scrollback.cursor(), LogFilter.ALL, file, null);
+		ZipInputStream zip = new ZipInputStream(new FileInputStream(file));
+		
+		try {
+			assertEquals("written", 4, written);
+			
+			ZipEntry entry = zip.getNextEntry();
+			assertEquals("first entry", "main.log", entry.getName());
+			assertEquals("main lines", Arrays.asList("I/ActivityManager(   61): Start proc",
+					"W/PackageManager(   61): Unknown permission"), lines(read(zip)));
+			
+			entry = zip.getNextEntry();
+			assertEquals("second entry", "radio.log", entry.getName());
+			assertEquals("radio lines", Arrays.asList("D/RILJ    (  120): [0042]> SIGNAL_STRENGTH",
+					"D/RILJ    (  120): [0043]< SIGNAL_STRENGTH"), lines(read(zip)));
+			
+			assertTrue("no more entries", zip.getNextEntry() == null);
+		} finally {
+			zip.close();
+			file.delete();
+		}
+	}
+	
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		
+		while ((n = in.read(buf)) >= 0) {
+			out.write(buf, 0, n);
+		}
+		
+		return out.toByteArray();
+	}
+	
+	private static List<String> lines(byte[] b) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		LogcatParser parser = new LogcatParser(new ByteArrayInputStream(b));
+		LogEntry entry = new LogEntry();
+		
+		while (parser.next(entry)) {
+			lines.add(entry.getLine());
+		}
+		
+		return lines;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.List;
+
+public class LogMergerTest extends TestCase {
+	
+	public void testTimestampOrder() throws Exception {
+		LogMerger merger = new LogMerger(2);
+		List<String> main = fixtureRecords("threadtime.log");
+		List<String> system = fixtureRecords("time.log");
+		
+		put(merger.getSource(0), "main", main);
+		put(merger.getSource(1), "system", system);
+		merger.getSource(0).finish();
+		merger.getSource(1).finish();
+		
+		long last = Long.MIN_VALUE;
+		int count = 0;
+		LogMerger.Line line;
+		
+		while ((line = merger.poll(0)) != null) {
+			assertTrue("in order at " + line.text, line.timestamp >= last);
+			last = line.timestamp;
+			count++;
+		}
+		
+		assertEquals("every line", main.size() + system.size(), count);
+		assertTrue("finished", merger.isFinished());
+		assertTrue("empty", merger.isEmpty());
+	}
+	
+	public void testInterleaved() throws Exception {
+		LogMerger merger = new LogMerger(3);
+		
+		for (int i = 0; i < 9; i++) {
+			merger.getSource(i % 3).put(new LogMerger.Line(i, "line " + i, "s" + (i % 3), true));
+		}
+		
+		for (int i = 0; i < 7; i++) {
+			assertEquals("line", "line " + i, merger.poll(0).text);
+		}
+		
+		// the first source has run dry but may still produce something older
+		assertEquals("held back", null, merger.poll(0));
+		
+		merger.getSource(0).finish();
+		assertEquals("line", "line 7", merger.poll(0).text);
+		
+		merger.getSource(1).finish();
+		assertEquals("line", "line 8", merger.poll(0).text);
+		assertTrue("not finished", !merger.isFinished());
+		
+		merger.getSource(2).finish();
+		assertTrue("finished", merger.isFinished());
+	}
+	
+	public void testIdleSourceReleasedAfterWindow() throws Exception {
+		LogMerger merger = new LogMerger(2);
+		merger.getSource(0).put(new LogMerger.Line(5, "only", "main", true));
+		
+		// the other source may still produce something older
+		assertEquals("held back", null, merger.poll(LogMerger.MERGE_WINDOW / 4));
+		
+		long start = System.nanoTime();
+		LogMerger.Line line = merger.poll(10 * 1000);
+		long waited = (System.nanoTime() - start) / 1000000;
+		
+		assertEquals("released", "only", line.text);
+		assertTrue("held for the window, " + waited + " ms", waited >= LogMerger.MERGE_WINDOW / 2);
+		assertTrue("not for the timeout, " + waited + " ms", waited < 5 * 1000);
+	}
+	
+	public void testFinishedSourceDoesNotHoldBack() throws Exception {
+		LogMerger merger = new LogMerger(2);
+		merger.getSource(0).put(new LogMerger.Line(5, "only", "main", true));
+		merger.getSource(1).finish();
+		
+		assertEquals("released at once", "only", merger.poll(0).text);
+		assertTrue("not finished", !merger.isFinished());
+		
+		merger.getSource(0).finish();
+		assertEquals("drained", null, merger.poll(0));
+		assertTrue("finished", merger.isFinished());
+	}
+	
+	public void testPutWakesWaitingPoll() throws Exception {
+		final LogMerger merger = new LogMerger(2);
+		
+		Thread producer = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(50);
+					merger.getSource(0).put(new LogMerger.Line(2, "second", "main", true));
+					merger.getSource(1).put(new LogMerger.Line(1, "first", "system", true));
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		};
+		
+		long start = System.nanoTime();
+		producer.start();
+		LogMerger.Line line = merger.poll(10 * 1000);
+		producer.join();
+		
+		assertEquals("oldest first", "first", line.text);
+		assertTrue("woken by the put", (System.nanoTime() - start) / 1000000 < 5 * 1000);
+	}
+	
+	private static void put(LogMerger.Source source, String name, List<String> records) throws InterruptedException {
+		LogEntry entry = new LogEntry();
+		
+		for (String record : records) {
+			LogcatParser.parse(record, entry);
+			source.put(new LogMerger.Line(entry.timestamp, record, name, true));
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LogcatParserTest extends TestCase {
+	
+	public void testBrief() throws Exception {
+		List<LogEntry> entries = parse("brief.log");
+		
+		assertEquals("records", 16, entries.size());
+		assertEquals("banner", LogEntry.FORMAT_RAW, entries.get(0).format);
+		
+		LogEntry entry = entries.get(1);
+		assertEquals("format", LogEntry.FORMAT_BRIEF, entry.format);
+		assertEquals("level", 'I', entry.level);
+		assertEquals("tag", "ActivityManager", entry.getTag());
+		assertEquals("pid", 61, entry.pid);
+		assertEquals("timestamp", -1, entry.timestamp);
+		assertEquals("message", "Start proc", message(entry).substring(0, 10));
+		
+		// the tag is padded before the pid
+		assertEquals("padded tag", "Process", entries.get(10).getTag());
+		assertEquals("utf-8 tag", "Ünïcödé", entries.get(15).getTag());
+		assertTrue("tag match ignores case", entries.get(1).tagEquals("activitymanager"));
+	}
+	
+	public void testTime() throws Exception {
+		List<LogEntry> entries = parse("time.log");
+		LogEntry entry = entries.get(1);
+		
+		assertEquals("format", LogEntry.FORMAT_TIME, entry.format);
+		assertEquals("tag", "ActivityManager", entry.getTag());
+		assertEquals("timestamp", time(3, 14, 9, 26, 53, 101), entry.timestamp);
+		assertEquals("last of the year", time(12, 31, 23, 59, 59, 999), entries.get(11).timestamp);
+	}
+	
+	public void testThreadtime() throws Exception {
+		List<LogEntry> entries = parse("threadtime.log");
+		LogEntry entry = entries.get(3);
+		
+		assertEquals("format", LogEntry.FORMAT_THREADTIME, entry.format);
+		assertEquals("level", 'W', entry.level);
+		assertEquals("tag", "chromium", entry.getTag());
+		assertEquals("pid", 4211, entry.pid);
+		assertEquals("tid", 4236, entry.tid);
+		assertEquals("timestamp", time(5, 2, 17, 40, 11, 315), entry.timestamp);
+		assertEquals("message", "[WARNING:dns_config_service_posix.cc(341)] Failed to read DnsConfig.", message(entry));
+		assertEquals("padded tag", "vold", entries.get(7).getTag());
+		assertEquals("empty message", "", message(entries.get(11)));
+	}
+	
+	public void testLong() throws Exception {
+		List<LogEntry> entries = parse("long.log");
+		
+		assertEquals("records", 5, entries.size());
+		
+		LogEntry entry = entries.get(3);
+		assertEquals("format", LogEntry.FORMAT_LONG, entry.format);
+		assertEquals("level", 'F', entry.level);
+		assertEquals("tag", "libc", entry.getTag());
+		assertEquals("pid", 12345, entry.pid);
+		assertEquals("tid", 12399, entry.tid);
+		assertEquals("timestamp", time(5, 2, 17, 40, 13, 400), entry.timestamp);
+		assertEquals("message", "Fatal signal 6 (SIGABRT), code -6 in tid 12399 (RenderThread)\nbacktrace:\n"
+				+ "    #00 pc 0001a2b0  /system/lib/libc.so (abort+64)", message(entry));
+	}
+	
+	public void testKernelIsRaw() throws Exception {
+		for (LogEntry entry : parse("kernel.log")) {
+			assertEquals("format", LogEntry.FORMAT_RAW, entry.format);
+			assertTrue("no tag", !entry.hasTag());
+		}
+	}
+	
+	public void testMergedPrefix() {
+		LogEntry entry = new LogEntry();
+		LogcatParser.parse("[radio] D/RILJ(  130): [0042]> SIGNAL_STRENGTH", entry);
+		
+		assertEquals("format", LogEntry.FORMAT_BRIEF, entry.format);
+		assertEquals("tag", "RILJ", entry.getTag());
+		assertEquals("prefix", 8, LogcatParser.sourcePrefixLength("[radio] D/RILJ(  130): x"));
+		assertEquals("no prefix", 0, LogcatParser.sourcePrefixLength("[ 05-02 17:40:11.204  1220: 1220 I/x ]"));
+	}
+	
+	public void testMalformedLines() {
+		String[] lines = {"", "I", "I/", "I/NoParen: message", "I/Tag(12 message", "05-02 17:40", "99-99 99:99:99.999 I/x(1): y"};
+		LogEntry entry = new LogEntry();
+		
+		for (String line : lines) {
+			LogcatParser.parse(line, entry);
+			assertEquals("raw: " + line, LogEntry.FORMAT_RAW, entry.format);
+		}
+	}
+	
+	public void testCrLfAndSmallBuffer() throws Exception {
+		String text = new String(fixtureBytes("threadtime.log"), "UTF-8").replace("\n", "\r\n");
+		LogcatParser parser = new LogcatParser(new ByteArrayInputStream(text.getBytes("UTF-8")), 64);
+		LogEntry entry = new LogEntry();
+		List<String> records = fixtureRecords("threadtime.log");
+		int n = 0;
+		
+		while (parser.next(entry)) {
+			assertEquals("line " + n, records.get(n++), entry.getLine());
+		}
+		
+		assertEquals("records", records.size(), n);
+	}
+	
+	private static List<LogEntry> parse(String name) throws Exception {
+		LogcatParser parser = new LogcatParser(new ByteArrayInputStream(fixtureBytes(name)));
+		ArrayList<LogEntry> entries = new ArrayList<LogEntry>();
+		LogEntry entry = new LogEntry();
+		
+		while (parser.next(entry)) {
+			// the entry points into the parser's buffer, so keep a copy
+			entry.buffer = entry.buffer.clone();
+			entries.add(entry);
+			entry = new LogEntry();
+		}
+		
+		return entries;
+	}
+	
+	private static String message(LogEntry entry) {
+		return LogEntry.decode(entry.buffer, entry.msgStart, entry.msgEnd - entry.msgStart);
+	}
+}
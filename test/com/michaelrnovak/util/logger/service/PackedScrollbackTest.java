@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+public class PackedScrollbackTest extends TestCase {
+	
+	public void testRoundTripsFixtures() throws Exception {
+		for (String name : FIXTURES) {
+			List<String> records = fixtureRecords(name);
+			PackedScrollback lines = new PackedScrollback(1024, 64 * 1024, new TagDictionary());
+			
+			for (String record : records) {
+				lines.add(record);
+			}
+			
+			assertEquals(name + " size", records.size(), lines.size());
+			assertEquals(name + " snapshot", records, lines.snapshot());
+			
+			for (int i = 0; i < records.size(); i++) {
+				LogEntry entry = new LogEntry();
+				LogcatParser.parse(records.get(i), entry);
+				assertEquals(name + " line " + i, records.get(i), lines.get(i));
+				assertEquals(name + " level " + i, entry.level, lines.getLevel(i));
+			}
+		}
+	}
+	
+	public void testParserEntriesKeepTagIds() throws Exception {
+		for (String name : FIXTURES) {
+			TagDictionary tags = new TagDictionary();
+			PackedScrollback lines = new PackedScrollback(1024, 64 * 1024, tags);
+			LogcatParser parser = new LogcatParser(new ByteArrayInputStream(fixtureBytes(name)));
+			LogEntry entry = new LogEntry();
+			parser.setTagDictionary(tags);
+			
+			while (parser.next(entry)) {
+				lines.add(entry);
+			}
+			
+			List<String> records = fixtureRecords(name);
+			LogEntry read = new LogEntry();
+			assertEquals(name + " size", records.size(), lines.size());
+			
+			for (int i = 0; i < records.size(); i++) {
+				LogEntry expected = new LogEntry();
+				LogcatParser.parse(records.get(i), expected);
+				
+				assertTrue(name + " read " + i, lines.read(i, read));
+				assertEquals(name + " read line " + i, records.get(i), read.getLine());
+				
+				// the long format is only recognised by the streaming parser
+				if (expected.hasTag()) {
+					assertEquals(name + " tag " + i, expected.getTag(), tags.getName(read.tagId));
+					assertEquals(name + " read tag " + i, expected.getTag(), read.getTag());
+				}
+			}
+		}
+	}
+	
+	public void testEvictsByLineCount() throws Exception {
+		List<String> records = fixtureRecords("brief.log");
+		PackedScrollback lines = new PackedScrollback(5, 64 * 1024, new TagDictionary());
+		
+		for (String record : records) {
+			lines.add(record);
+		}
+		
+		assertEquals("size", 5, lines.size());
+		assertEquals("snapshot", records.subList(records.size() - 5, records.size()), lines.snapshot());
+	}
+	
+	public void testEvictsByBytes() throws Exception {
+		List<String> records = fixtureRecords("time.log");
+		int arena = 512;
+		PackedScrollback lines = new PackedScrollback(1024, arena, new TagDictionary());
+		
+		for (int pass = 0; pass < 4; pass++) {
+			for (String record : records) {
+				lines.add(record);
+			}
+		}
+		
+		List<String> kept = lines.snapshot();
+		int bytes = 0;
+		
+		for (String line : kept) {
+			bytes += line.getBytes("UTF-8").length;
+		}
+		
+		assertTrue("something kept", kept.size() > 0);
+		assertTrue("within the arena: " + bytes, bytes <= arena);
+		assertEquals("newest kept", records.get(records.size() - 1), kept.get(kept.size() - 1));
+		
+		// what is kept is the newest run of records, in order
+		int offset = records.size() - kept.size() % records.size();
+		
+		for (int i = 0; i < kept.size(); i++) {
+			assertEquals("kept " + i, records.get((offset + i) % records.size()), kept.get(i));
+		}
+	}
+	
+	public void testCursor() throws Exception {
+		List<String> records = fixtureRecords("threadtime.log");
+		PackedScrollback lines = new PackedScrollback(1024, 64 * 1024, new TagDictionary());
+		
+		for (String record : records) {
+			lines.add(record);
+		}
+		
+		LineCursor cursor = lines.cursor();
+		LogEntry entry = new LogEntry();
+		assertEquals("size", records.size(), cursor.size());
+		
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < records.size(); i++) {
+				assertTrue("next " + i, cursor.next(entry));
+				assertEquals("line " + i, records.get(i), entry.getLine());
+			}
+			
+			assertTrue("end", !cursor.next(entry));
+			cursor.rewind();
+		}
+		
+		// lines added later are not seen, evicted ones are skipped
+		lines = new PackedScrollback(4, 64 * 1024, new TagDictionary());
+		
+		for (int i = 0; i < 4; i++) {
+			lines.add(records.get(i));
+		}
+		
+		cursor = lines.cursor();
+		assertTrue("first", cursor.next(entry));
+		assertEquals("first line", records.get(0), entry.getLine());
+		
+		lines.add(records.get(4));
+		lines.add(records.get(5));
+		
+		assertTrue("after eviction", cursor.next(entry));
+		assertEquals("skipped evicted line", records.get(2), entry.getLine());
+		assertTrue("last", cursor.next(entry));
+		assertEquals("last line", records.get(3), entry.getLine());
+		assertTrue("not past the start", !cursor.next(entry));
+	}
+	
+	public void testTruncatesOversizedLine() {
+		PackedScrollback lines = new PackedScrollback(4, 16, new TagDictionary());
+		lines.add("I/Tag(1): a line longer than the whole arena");
+		
+		assertEquals("size", 1, lines.size());
+		assertEquals("truncated", "I/Tag(1): a line", lines.get(0));
+	}
+	
+	public void testClear() throws Exception {
+		List<String> records = fixtureRecords("threadtime.log");
+		PackedScrollback lines = new PackedScrollback(16, 4096, new TagDictionary());
+		
+		for (String record : records) {
+			lines.add(record);
+		}
+		
+		lines.clear();
+		assertEquals("size after clear", 0, lines.size());
+		
+		lines.add(records.get(1));
+		assertEquals("size after re-add", 1, lines.size());
+		assertEquals("line after re-add", records.get(1), lines.get(0));
+	}
+}
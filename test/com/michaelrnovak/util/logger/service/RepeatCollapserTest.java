@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RepeatCollapserTest extends TestCase {
+	
+	private static final String GC = "05-02 17:40:11.230  4211  4211 D dalvikvm: GC_CONCURRENT freed 378K";
+	
+	private final ArrayList<String> mSummaries = new ArrayList<String>();
+	private final RepeatCollapser mCollapser = new RepeatCollapser(new RepeatCollapser.Listener() {
+		public void onRepeats(String summary) {
+			mSummaries.add(summary);
+		}
+	});
+	
+	public void testFirstCopyPassesThrough() throws Exception {
+		List<String> records = fixtureRecords("threadtime.log");
+		
+		// distinct lines are never held back
+		for (String record : records) {
+			assertTrue("distinct: " + record, !add(record));
+		}
+		
+		assertTrue("first copy", !add(GC));
+		assertTrue("second copy", add(GC));
+		assertTrue("third copy", add(at(GC, "17:40:12.001")));
+		assertTrue("pending", mCollapser.hasPending());
+		assertEquals("nothing reported yet", 0, mSummaries.size());
+	}
+	
+	public void testKeyIgnoresTimeButNotLevelTagOrPid() {
+		add(GC);
+		
+		assertTrue("other time", add(at(GC, "17:40:15.000")));
+		assertTrue("other tid", add(GC.replace("4211  4211", "4211  4236")));
+		assertTrue("other level", !add(GC.replace(" D ", " I ")));
+		assertTrue("other tag", !add(GC.replace("dalvikvm", "art")));
+		assertTrue("other pid", !add(GC.replace("4211  4211", "4212  4211")));
+	}
+	
+	public void testSummaryText() {
+		add(GC);
+		add(at(GC, "17:40:11.500"));
+		mCollapser.flush();
+		
+		add(GC);
+		add(at(GC, "17:40:12.000"));
+		add(at(GC, "17:40:13.045"));
+		mCollapser.flush();
+		
+		assertEquals("summaries", 2, mSummaries.size());
+		assertEquals("one repeat", at(GC, "17:40:11.500") + "  (repeated 1 more time, 17:40:11.500 to 17:40:11.500)",
+				mSummaries.get(0));
+		assertEquals("two repeats", at(GC, "17:40:13.045") + "  (repeated 3 more times, 17:40:11.230 to 17:40:13.045)",
+				mSummaries.get(1));
+		assertTrue("flushed", !mCollapser.hasPending());
+	}
+	
+	public void testReportedWhenEvictedByOtherLines() {
+		add(GC);
+		add(GC);
+		add(GC);
+		
+		// the window holds the repeating line and three others
+		for (int i = 0; i < RepeatCollapser.WINDOW - 1; i++) {
+			assertTrue("other " + i, !add("05-02 17:40:11.300  1220  1220 I Other: line " + i));
+		}
+		
+		assertEquals("still in the window", 0, mSummaries.size());
+		
+		// a line that is not in the window pushes out the least recent, the repeating one
+		assertTrue("new line", !add("05-02 17:40:11.400  1220  1220 I Other: line x"));
+		assertEquals("evicted", 1, mSummaries.size());
+		assertTrue("summary", mSummaries.get(0).startsWith(GC + "  (repeated 2 more times, "));
+		
+		// once evicted the line passes through again
+		assertTrue("passes again", !add(GC));
+	}
+	
+	public void testReportedAfterInterval() throws Exception {
+		add(GC);
+		add(GC);
+		Thread.sleep(RepeatCollapser.REPORT_INTERVAL + 50);
+		
+		assertTrue("counted", add(GC));
+		assertEquals("reported while repeating", 1, mSummaries.size());
+		assertTrue("both counted", mSummaries.get(0).indexOf("(repeated 2 more times") > 0);
+		assertTrue("nothing left", !mCollapser.hasPending());
+	}
+	
+	public void testFlushQuiet() throws Exception {
+		add(GC);
+		add(GC);
+		
+		mCollapser.flushQuiet(10 * 1000);
+		assertEquals("not quiet yet", 0, mSummaries.size());
+		
+		Thread.sleep(60);
+		mCollapser.flushQuiet(50);
+		assertEquals("quiet", 1, mSummaries.size());
+		assertTrue("reported once", !mCollapser.hasPending());
+		
+		mCollapser.flushQuiet(0);
+		assertEquals("nothing more", 1, mSummaries.size());
+		assertTrue("window kept", add(GC));
+	}
+	
+	public void testClear() {
+		add(GC);
+		add(GC);
+		mCollapser.clear();
+		
+		assertTrue("nothing pending", !mCollapser.hasPending());
+		assertTrue("window emptied", !add(GC));
+		assertEquals("not reported", 0, mSummaries.size());
+	}
+	
+	private boolean add(String line) {
+		LogEntry entry = new LogEntry();
+		LogcatParser.parse(line, entry);
+		return mCollapser.add(entry);
+	}
+	
+	private static String at(String line, String time) {
+		return line.substring(0, 6) + time + line.substring(18);
+	}
+}
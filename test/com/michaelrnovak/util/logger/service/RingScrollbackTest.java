@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.List;
+
+public class RingScrollbackTest extends TestCase {
+	
+	public void testKeepsEverythingBelowCapacity() throws Exception {
+		for (String name : FIXTURES) {
+			List<String> records = fixtureRecords(name);
+			RingScrollback<String> ring = new RingScrollback<String>(records.size() + 1);
+			
+			for (String record : records) {
+				ring.add(record);
+			}
+			
+			assertEquals(name + " size", records.size(), ring.size());
+			assertEquals(name + " snapshot", records, ring.snapshot());
+			
+			for (int i = 0; i < records.size(); i++) {
+				assertEquals(name + " line " + i, records.get(i), ring.get(i));
+			}
+		}
+	}
+	
+	public void testEvictsOldestFirst() throws Exception {
+		for (String name : FIXTURES) {
+			List<String> records = fixtureRecords(name);
+			int capacity = records.size() / 2;
+			RingScrollback<String> ring = new RingScrollback<String>(capacity);
+			
+			// wrap around several times
+			for (int pass = 0; pass < 3; pass++) {
+				for (String record : records) {
+					ring.add(record);
+				}
+			}
+			
+			List<String> tail = records.subList(records.size() - capacity, records.size());
+			assertEquals(name + " size", capacity, ring.size());
+			assertEquals(name + " snapshot", tail, ring.snapshot());
+			assertEquals(name + " first", tail.get(0), ring.get(0));
+			assertEquals(name + " last", tail.get(capacity - 1), ring.get(capacity - 1));
+		}
+	}
+	
+	public void testClear() throws Exception {
+		List<String> records = fixtureRecords("threadtime.log");
+		RingScrollback<String> ring = new RingScrollback<String>(4);
+		
+		for (String record : records) {
+			ring.add(record);
+		}
+		
+		ring.clear();
+		assertEquals("size after clear", 0, ring.size());
+		assertTrue("snapshot after clear", ring.snapshot().isEmpty());
+		
+		ring.add(records.get(0));
+		assertEquals("size after re-add", 1, ring.size());
+		assertEquals("line after re-add", records.get(0), ring.get(0));
+	}
+	
+	public void testRejectsBadIndex() {
+		RingScrollback<String> ring = new RingScrollback<String>(2);
+		ring.add("I/a(1): x");
+		
+		try {
+			ring.get(1);
+			fail("get past the end");
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+		
+		try {
+			new RingScrollback<String>(0);
+			fail("zero capacity");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+public class SearchMatcherTest extends TestCase {
+	
+	public void testOverlappingTerms() {
+		// "she" and "hers" overlap in "ushers", "he" lies inside both
+		assertSpans("overlap", "[1, 6]", new SearchMatcher("he she hers", false).match("ushers", 0));
+		
+		// a term inside a longer one is found whether or not the longer one completes
+		SearchMatcher matcher = new SearchMatcher("abcd bc", false);
+		assertSpans("longer completes", "[1, 5]", matcher.match("xabcdx", 0));
+		assertSpans("longer breaks off", "[2, 4]", matcher.match("xabcx", 0));
+		assertSpans("repeated", "[0, 2, 3, 5]", new SearchMatcher("ab", false).match("ab ab", 0));
+	}
+	
+	public void testCaseFolding() {
+		SearchMatcher matcher = new SearchMatcher("FaTaL", false);
+		
+		assertSpans("upper text", "[7, 12]", matcher.match("E/Foo: FATAL", 0));
+		assertSpans("lower text", "[7, 12]", matcher.match("E/Foo: fatal", 0));
+		
+		// only ASCII is folded
+		assertSpans("non-ascii", "[2, 9]", new SearchMatcher("Ünïcödé", false).match("I/Ünïcödé(  400)", 0));
+		assertSpans("non-ascii case", null, new SearchMatcher("ünïcödé", false).match("I/Ünïcödé(  400)", 0));
+	}
+	
+	public void testFixture() throws Exception {
+		List<String> records = fixtureRecords("brief.log");
+		SearchMatcher matcher = new SearchMatcher("exception gc_", false);
+		int matched = 0;
+		
+		for (String record : records) {
+			if (matcher.match(record, 0) != null) {
+				matched++;
+			}
+		}
+		
+		// FATAL EXCEPTION, NullPointerException and two GC lines
+		assertEquals("matched", 4, matched);
+		assertSpans("highlight", "[31, 40]", matcher.match(records.get(7), 0));
+	}
+	
+	public void testRegex() {
+		SearchMatcher matcher = new SearchMatcher("/sig(segv|abrt)/ /code=\\d+/", false);
+		
+		assertSpans("alternation", "[36, 43, 60, 66]", matcher.match("F/libc    (  311): Fatal signal 11 (SIGSEGV) at 0x00000000 (code=1)", 0));
+		assertSpans("spaces", "[7, 18]", new SearchMatcher("/timed  *out/", false).match("E/Foo: timed   out", 0));
+		assertSpans("no match", null, matcher.match("I/Process (   61): Sending signal. PID: 302 SIG: 9", 0));
+	}
+	
+	public void testInvalidRegex() {
+		try {
+			new SearchMatcher("ok /[unclosed/", false);
+			fail("an invalid regex was accepted");
+		} catch (PatternSyntaxException e) {
+			assertEquals("pattern", "[unclosed", e.getPattern());
+		}
+		
+		// an unterminated slash is just text
+		assertSpans("literal slash", "[4, 8]", new SearchMatcher("/dev", false).match("mnt /dev/block", 0));
+	}
+	
+	public void testSpansMerged() {
+		assertSpans("adjacent", "[0, 6]", new SearchMatcher("foo bar", false).match("foobar", 0));
+		assertSpans("literal and regex overlap", "[1, 5]", new SearchMatcher("foo /o+b/", false).match("xfoobar", 0));
+		assertSpans("regex inside literal", "[0, 6]", new SearchMatcher("foobar /oo/", false).match("foobar", 0));
+		assertSpans("apart", "[0, 3, 4, 7]", new SearchMatcher("/bar/ foo", false).match("foo bar", 0));
+	}
+	
+	public void testFrom() {
+		SearchMatcher matcher = new SearchMatcher("foo /o+/", true);
+		
+		assertSpans("from", "[4, 7]", matcher.match("foo foo", 3));
+		assertSpans("past the end", null, matcher.match("foo", 3));
+		assertTrue("filtering", matcher.isFiltering());
+	}
+	
+	private static void assertSpans(String message, String expected, int[] spans) {
+		assertEquals(message, expected, (spans != null) ? Arrays.toString(spans) : null);
+	}
+}
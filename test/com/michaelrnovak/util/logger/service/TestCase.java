@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class for the plain-JVM tests. There is no JUnit on the device
+ * build path, so {@link AllTests} runs every public no-argument method
+ * whose name starts with "test" and a failed assertion is just an
+ * AssertionError.
+ */
+public abstract class TestCase {
+	
+	public static final String[] FIXTURES = {"brief.log", "time.log", "threadtime.log", "long.log", "kernel.log"};
+	
+	/**
+	 * Returns the raw bytes of a recorded log under the fixture directory,
+	 * which is taken from the "fixtures" system property.
+	 */
+	protected static byte[] fixtureBytes(String name) throws IOException {
+		return readBytes(new File(System.getProperty("fixtures", "test/fixtures"), name));
+	}
+	
+	protected static byte[] readBytes(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+			byte[] buf = new byte[8192];
+			int n;
+			
+			while ((n = in.read(buf)) >= 0) {
+				out.write(buf, 0, n);
+			}
+			
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Returns the records of a fixture as the service would see them, one
+	 * string per record (a long-format record spans several lines).
+	 */
+	protected static List<String> fixtureRecords(String name) throws IOException {
+		LogcatParser parser = new LogcatParser(new ByteArrayInputStream(fixtureBytes(name)));
+		LogEntry entry = new LogEntry();
+		ArrayList<String> records = new ArrayList<String>();
+		
+		while (parser.next(entry)) {
+			records.add(entry.getLine());
+		}
+		
+		return records;
+	}
+	
+	/**
+	 * Returns a scrollback holding every record of a fixture.
+	 */
+	protected static PackedScrollback fixtureScrollback(String name) throws IOException {
+		List<String> records = fixtureRecords(name);
+		PackedScrollback scrollback = new PackedScrollback(records.size(), 1024 * 1024, new TagDictionary());
+		
+		for (int i = 0; i < records.size(); i++) {
+			scrollback.add(records.get(i));
+		}
+		
+		return scrollback;
+	}
+	
+	/**
+	 * Returns a log line's time as the parser gives it: milliseconds from
+	 * the start of a non-leap year.
+	 */
+	protected static long time(int month, int day, int hour, int min, int sec, int ms) {
+		int[] before = {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334};
+		return ((((before[month - 1] + day - 1) * 24L + hour) * 60 + min) * 60 + sec) * 1000 + ms;
+	}
+	
+	protected static void fail(String message) {
+		throw new AssertionError(message);
+	}
+	
+	protected static void assertTrue(String message, boolean condition) {
+		if (!condition) {
+			fail(message);
+		}
+	}
+	
+	protected static void assertEquals(String message, Object expected, Object actual) {
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			fail(message + ": expected <" + expected + "> but was <" + actual + ">");
+		}
+	}
+	
+	protected static void assertEquals(String message, long expected, long actual) {
+		if (expected != actual) {
+			fail(message + ": expected <" + expected + "> but was <" + actual + ">");
+		}
+	}
+}
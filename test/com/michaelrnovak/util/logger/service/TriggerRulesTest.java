@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2009  Michael Novak <mike@androidnerds.org>
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.michaelrnovak.util.logger.service;
+
+import java.util.List;
+
+public class TriggerRulesTest extends TestCase {
+	
+	public void testDefaultsFireOnCrashAndAnr() throws Exception {
+		TriggerRules rules = new TriggerRules(TriggerRules.DEFAULTS, null);
+		
+		assertEquals("crash", "E/AndroidRuntime(  302): FATAL EXCEPTION: main", only(rules, "brief.log"));
+		assertEquals("anr", "03-14 09:26:55.019 E/ActivityManager(   61): ANR in com.example.slow (com.example.slow/.MainActivity)",
+				only(rules, "time.log"));
+		assertEquals("nothing in threadtime", null, only(rules, "threadtime.log"));
+		assertEquals("floor", 'E', rules.getLowestLevel());
+	}
+	
+	public void testTagAndLevel() throws Exception {
+		assertEquals("tag only", 3, count(new TriggerRules(new String[] {"AndroidRuntime:"}, null), "brief.log"));
+		assertEquals("tag ignores case", 3, count(new TriggerRules(new String[] {"androidruntime/E:"}, null), "brief.log"));
+		assertEquals("level is a minimum", 6, count(new TriggerRules(new String[] {"/W:"}, null), "brief.log"));
+		assertEquals("level only", 1, count(new TriggerRules(new String[] {"/F:"}, null), "brief.log"));
+		assertEquals("level too low", 0, count(new TriggerRules(new String[] {"ActivityManager/E:Start proc"}, null), "brief.log"));
+		assertEquals("tag and text", 1, count(new TriggerRules(new String[] {"AndroidRuntime:NullPointer"}, null), "brief.log"));
+	}
+	
+	public void testTextWithColon() throws Exception {
+		// a head with a space in it is not a tag, so the whole rule is text
+		TriggerRules rules = new TriggerRules(new String[] {"FATAL EXCEPTION: main"}, null);
+		
+		assertEquals("text", "E/AndroidRuntime(  302): FATAL EXCEPTION: main", only(rules, "brief.log"));
+		assertEquals("text is case sensitive", null, only(new TriggerRules(new String[] {"fatal exception"}, null), "brief.log"));
+	}
+	
+	public void testDictionary() throws Exception {
+		TagDictionary dictionary = new TagDictionary();
+		TriggerRules rules = new TriggerRules(new String[] {"vold/I:"}, dictionary);
+		LogEntry entry = new LogEntry();
+		int matched = 0;
+		
+		for (String record : fixtureRecords("threadtime.log")) {
+			LogcatParser.parse(record, entry, dictionary);
+			
+			if (rules.match(entry) != null) {
+				matched++;
+			}
+		}
+		
+		assertEquals("by tag id", 1, matched);
+	}
+	
+	public void testRules() {
+		TriggerRules rules = new TriggerRules(new String[] {" ", "  FATAL  ", null, "AndroidRuntime/W:"}, null);
+		
+		assertEquals("blanks dropped and trimmed", 2, rules.getRules().length);
+		assertEquals("trimmed", "FATAL", rules.getRules()[0]);
+		assertEquals("text takes every level", 'V', rules.getLowestLevel());
+		assertEquals("lowest level", 'W', new TriggerRules(new String[] {"/F:", "AndroidRuntime/W:"}, null).getLowestLevel());
+		assertEquals("no rules", 0, new TriggerRules(TriggerRules.split(""), null).getLowestLevel());
+		assertTrue("empty", new TriggerRules(TriggerRules.split(null), null).isEmpty());
+		assertEquals("split", 2, TriggerRules.split("a\nb").length);
+	}
+	
+	// the one record that fires, or null; fails if several do
+	private static String only(TriggerRules rules, String fixture) throws Exception {
+		String fired = null;
+		LogEntry entry = new LogEntry();
+		
+		for (String record : fixtureRecords(fixture)) {
+			LogcatParser.parse(record, entry);
+			
+			if (rules.match(entry) != null) {
+				assertEquals("fired twice", null, fired);
+				fired = record;
+			}
+		}
+		
+		return fired;
+	}
+	
+	private static int count(TriggerRules rules, String fixture) throws Exception {
+		List<String> records = fixtureRecords(fixture);
+		LogEntry entry = new LogEntry();
+		int count = 0;
+		
+		for (String record : records) {
+			LogcatParser.parse(record, entry);
+			
+			if (rules.match(entry) != null) {
+				count++;
+			}
+		}
+		
+		return count;
+	}
+}
@@ -0,0 +1,15 @@
+#!/bin/sh
+# Compiles the plain-Java service classes (everything that does not import
+# android.*) together with the tests and runs them on the host JVM.
+#
+#   test/run.sh [javac options]
+
+cd "$(dirname "$0")/.." || exit 1
+
+OUT=${OUT:-/tmp/logger-test}
+rm -rf "$OUT" && mkdir -p "$OUT" || exit 1
+
+SOURCES=$(grep -rL '^import android' --include='*.java' src)
+
+javac -encoding UTF-8 -nowarn -d "$OUT" "$@" $SOURCES $(find test -name '*.java') || exit 1
+java -ea -cp "$OUT" -Dfixtures=test/fixtures com.michaelrnovak.util.logger.service.AllTests